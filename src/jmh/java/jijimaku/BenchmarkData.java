@@ -0,0 +1,105 @@
+package jijimaku;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import jijimaku.models.Caption;
+import jijimaku.models.ServicesParam;
+import jijimaku.services.dictionary.Dictionary;
+import jijimaku.services.dictionary.DictionaryLingoesLd2;
+import jijimaku.services.langparser.LangParser;
+import jijimaku.services.langparser.LangParser.TextToken;
+import jijimaku.services.langparser.LangParserKuromoji;
+import jijimaku.utils.FileManager;
+import jijimaku.utils.SubtitleReader;
+
+
+/**
+ * Services and test data shared by the benchmarks: the bundled Japanese LD2 dictionary, the kuromoji parser
+ * and the Japanese DavidGallo subtitles. Loaded once per benchmark run.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkData {
+
+  public static final String SUBTITLE_NAME = "DavidGallo_2007.ja.srt";
+  public static final String DICTIONARY_PATH = "src/test/resources/dictionaries/ld2/JMDict English-Japanese Dictionary.ld2";
+  private static final String SUBTITLE_PATH = "src/test/resources/subtitles/japanese/" + SUBTITLE_NAME;
+
+  public AppConfig config;
+  public Dictionary dictionary;
+  public LangParser parser;
+  public ServicesParam services;
+
+  // Subtitle file contents, and the text of each of its captions
+  public String subtitleContents;
+  public List<String> captions;
+  // Text form of the word tokens of each caption
+  public List<List<String>> captionWords;
+  // Distinct canonical and text forms of all the caption tokens
+  public String[] lemmas;
+
+  /**
+   * Load the application config.yaml.
+   */
+  public static AppConfig loadConfig() {
+    return new AppConfig(new File(FileManager.getAppDirectory() + "/" + AppMain.CONFIG_FILE));
+  }
+
+  /**
+   * Read all the captions of a subtitle file.
+   */
+  public static List<Caption> readCaptions(String fileName, String contents) throws IOException {
+    List<Caption> captions = new ArrayList<>();
+    try (SubtitleReader subtitle = new SubtitleReader(fileName, new StringReader(contents))) {
+      Caption caption;
+      while ((caption = subtitle.next()) != null) {
+        captions.add(caption);
+      }
+    }
+    return captions;
+  }
+
+  /**
+   * Load the services and parse the subtitle file once.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    String projectDir = FileManager.getAppDirectory();
+    config = loadConfig();
+    dictionary = new DictionaryLingoesLd2(new File(projectDir + "/" + DICTIONARY_PATH), config);
+    parser = new LangParserKuromoji(config);
+    services = new ServicesParam(config, dictionary, parser);
+
+    subtitleContents = new String(Files.readAllBytes(new File(projectDir + "/" + SUBTITLE_PATH).toPath()), StandardCharsets.UTF_8);
+    captions = new ArrayList<>();
+    captionWords = new ArrayList<>();
+    Set<String> forms = new LinkedHashSet<>();
+    for (Caption caption : readCaptions(SUBTITLE_NAME, subtitleContents)) {
+      captions.add(caption.getContent());
+      List<TextToken> tokens = parser.parse(caption.getContent());
+      captionWords.add(tokens.stream()
+          .filter(t -> t.getPartOfSpeech() != LangParser.PosTag.PUNCT)
+          .map(TextToken::getTextForm)
+          .collect(Collectors.toList()));
+      for (TextToken token : tokens) {
+        forms.add(token.getFirstCanonicalForm());
+        forms.add(token.getSecondCanonicalForm());
+        forms.add(token.getTextForm());
+      }
+    }
+    lemmas = forms.toArray(new String[0]);
+  }
+}
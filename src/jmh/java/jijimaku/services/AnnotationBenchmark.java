@@ -0,0 +1,70 @@
+package jijimaku.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jijimaku.BenchmarkData;
+import jijimaku.models.DictionaryMatch;
+
+
+/**
+ * Dictionary matching and annotation of all the captions of the test subtitles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AnnotationBenchmark {
+
+  private static final String COLOR = "#FFAAAA";
+
+  private AnnotationService annotationService;
+  private List<String> captions;
+  private List<DictionaryMatch> matches;
+
+  /**
+   * Clean the captions and compute their matches once, to benchmark each step separately.
+   */
+  @Setup(Level.Trial)
+  public void setup(BenchmarkData data) {
+    annotationService = new AnnotationService(data.services);
+    captions = new ArrayList<>();
+    matches = new ArrayList<>();
+    for (String caption : data.captions) {
+      String cleaned = annotationService.cleanCaptionText(caption);
+      captions.add(cleaned);
+      matches.addAll(annotationService.getFilteredMatches(cleaned));
+    }
+  }
+
+  @Benchmark
+  public void getDictionaryMatches(Blackhole blackhole) {
+    for (String caption : captions) {
+      blackhole.consume(annotationService.getDictionaryMatches(caption));
+    }
+  }
+
+  @Benchmark
+  public void getFilteredMatches(Blackhole blackhole) {
+    for (String caption : captions) {
+      blackhole.consume(annotationService.getFilteredMatches(caption));
+    }
+  }
+
+  @Benchmark
+  public void annotateDictionaryMatch(Blackhole blackhole) {
+    for (DictionaryMatch match : matches) {
+      blackhole.consume(annotationService.annotateDictionaryMatch(match, COLOR));
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package jijimaku.services.dictionary;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import jijimaku.AppConfig;
+import jijimaku.BenchmarkData;
+import jijimaku.utils.FileManager;
+
+
+/**
+ * Loading of the bundled JMDict LD2 dictionary: block inflation alone, and the full load into a dictionary index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DictionaryLingoesLd2Benchmark {
+
+  private AppConfig config;
+  private File dictFile;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    config = BenchmarkData.loadConfig();
+    dictFile = new File(FileManager.getAppDirectory() + "/" + BenchmarkData.DICTIONARY_PATH);
+  }
+
+  @Benchmark
+  public LingoesLd2Reader inflate() throws Exception {
+    return new LingoesLd2Reader(dictFile);
+  }
+
+  @Benchmark
+  public DictionaryLingoesLd2 load() {
+    return new DictionaryLingoesLd2(dictFile, config);
+  }
+}
@@ -0,0 +1,27 @@
+package jijimaku.services.dictionary;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jijimaku.BenchmarkData;
+
+
+/**
+ * Dictionary lookups of all the token forms found in the test subtitles(hits and misses).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DictionarySearchBenchmark {
+
+  @Benchmark
+  public void search(BenchmarkData data, Blackhole blackhole) {
+    for (String lemma : data.lemmas) {
+      blackhole.consume(data.dictionary.search(lemma));
+    }
+  }
+}
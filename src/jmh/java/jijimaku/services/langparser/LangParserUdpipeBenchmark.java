@@ -0,0 +1,70 @@
+package jijimaku.services.langparser;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import jijimaku.AppConfig;
+import jijimaku.BenchmarkData;
+import jijimaku.models.Caption;
+import jijimaku.services.LanguageService.Language;
+import jijimaku.utils.FileManager;
+
+
+/**
+ * UDPipe parsing of all the captions of the DavidGallo subtitles, with and without the dependency parsing.
+ * The UDPipe models are not part of the project: download the models of the benchmarked languages
+ * in the project directory first, e.g. english-ud-2.0-170801.udpipe
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LangParserUdpipeBenchmark {
+
+  private static final String SUBTITLES_PATH = "src/test/resources/subtitles/";
+
+  @Param({"ENGLISH", "FRENCH", "SPANISH", "KOREAN"})
+  public Language language;
+
+  @Param({"false", "true"})
+  public boolean dependencyParse;
+
+  private LangParserUdpipe parser;
+  private List<String> captions;
+
+  /**
+   * Load the model of the language and the captions of its subtitle file.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    String projectDir = FileManager.getAppDirectory();
+    AppConfig config = BenchmarkData.loadConfig();
+    parser = new LangParserUdpipe(language, config, dependencyParse);
+
+    File[] subtitleFiles = new File(projectDir + "/" + SUBTITLES_PATH + language.toString().toLowerCase()).listFiles();
+    File subtitleFile = subtitleFiles[0];
+    String contents = new String(Files.readAllBytes(subtitleFile.toPath()), StandardCharsets.UTF_8);
+    captions = new ArrayList<>();
+    for (Caption caption : BenchmarkData.readCaptions(subtitleFile.getName(), contents)) {
+      captions.add(caption.getContent());
+    }
+  }
+
+  @Benchmark
+  public List<List<LangParser.TextToken>> syntaxicParseAll() {
+    return parser.syntaxicParseAll(captions);
+  }
+}
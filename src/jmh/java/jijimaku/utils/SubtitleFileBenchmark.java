@@ -0,0 +1,47 @@
+package jijimaku.utils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import jijimaku.BenchmarkData;
+import jijimaku.models.Caption;
+
+
+/**
+ * Colorization of every word of the test subtitles.
+ * Colorizing modifies the captions, so each invocation works on freshly read captions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SubtitleFileBenchmark {
+
+  private static final String COLOR = "#FFAAAA";
+
+  private List<Caption> captions;
+
+  @Setup(Level.Invocation)
+  public void readCaptions(BenchmarkData data) throws Exception {
+    captions = BenchmarkData.readCaptions(BenchmarkData.SUBTITLE_NAME, data.subtitleContents);
+  }
+
+  @Benchmark
+  public List<Caption> colorizeCaptionWord(BenchmarkData data) {
+    String wordSeparator = data.parser.getWordSeparator();
+    for (int i = 0; i < captions.size(); i++) {
+      for (String word : data.captionWords.get(i)) {
+        SubtitleFile.colorizeCaptionWord(captions.get(i), word, COLOR, wordSeparator);
+      }
+    }
+    return captions;
+  }
+}
@@ -0,0 +1,103 @@
+package jijimaku;
+
+import java.io.File;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import jijimaku.errors.JijimakuError;
+import jijimaku.models.AnnotationSummary;
+import jijimaku.models.ServicesParam;
+import jijimaku.utils.FileManager;
+import jijimaku.workers.DirectoryAnnotator;
+import jijimaku.workers.ServicesInitializer;
+
+
+/**
+ * Command-line mode: annotate a directory without GUI, for batch processing.
+ * Logs are written to the standard error and a JSON summary is written to the standard output.
+ */
+final class AppCli {
+  private static final Logger LOGGER;
+
+  static {
+    System.setProperty("logDir", FileManager.getLogsDirectory());
+    LOGGER = LogManager.getLogger();
+  }
+
+  static final int EXIT_OK = 0;
+  static final int EXIT_FILE_ERRORS = 1;
+  static final int EXIT_USAGE = 2;
+  static final int EXIT_CRITICAL_ERROR = 3;
+
+  private static final String USAGE = "Usage: jijimaku [--config <config.yaml>] [--threads <n>] <directory>\n"
+      + "Annotate the subtitle files in directory(recursive) and print a JSON summary.\n"
+      + "Exit codes: " + EXIT_OK + " success, " + EXIT_FILE_ERRORS + " some files could not be annotated, "
+      + EXIT_USAGE + " invalid arguments, " + EXIT_CRITICAL_ERROR + " initialization error\n";
+
+  private AppCli() {
+  }
+
+  /**
+   * Run the command-line mode.
+   * @return the process exit code
+   */
+  static int run(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    // Keep the standard output for the summary
+    System.setProperty("consoleTarget", "SYSTEM_ERR");
+    ((LoggerContext) LogManager.getContext(false)).reconfigure();
+
+    File configFile = new File(FileManager.getAppDirectory() + "/" + AppMain.CONFIG_FILE);
+    Integer nbThreads = null;
+    File searchDirectory = null;
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--config":
+            configFile = new File(args[++i]);
+            break;
+          case "--threads":
+            nbThreads = Integer.parseInt(args[++i]);
+            break;
+          case "--help":
+            System.err.print(USAGE);
+            return EXIT_OK;
+          default:
+            if (args[i].startsWith("--") || searchDirectory != null) {
+              System.err.print("Invalid argument " + args[i] + "\n" + USAGE);
+              return EXIT_USAGE;
+            }
+            searchDirectory = new File(args[i]);
+            break;
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException | NumberFormatException exc) {
+      System.err.print(USAGE);
+      return EXIT_USAGE;
+    }
+    if (searchDirectory == null || !searchDirectory.isDirectory() || (nbThreads != null && nbThreads < 1)) {
+      System.err.print(USAGE);
+      return EXIT_USAGE;
+    }
+
+    try {
+      ServicesParam services = new ServicesInitializer(configFile).initialize();
+      int threads = nbThreads != null ? nbThreads : services.getConfig().getAnnotationThreads();
+      AnnotationSummary summary = new DirectoryAnnotator(searchDirectory, AppMain.VALID_SUBFILE_EXT, services, threads)
+          .annotate(() -> false);
+      System.out.println(summary.toJson());
+      return summary.getNbFailedFiles() > 0 ? EXIT_FILE_ERRORS : EXIT_OK;
+    } catch (JijimakuError exc) {
+      if (exc.getMessage() != null && !exc.getMessage().isEmpty()) {
+        LOGGER.error(exc.getMessage());
+      }
+      return EXIT_CRITICAL_ERROR;
+    } catch (Exception exc) {
+      LOGGER.debug(exc);
+      LOGGER.error("Got an unexpected error. Check the logs.");
+      return EXIT_CRITICAL_ERROR;
+    }
+  }
+}
@@ -48,6 +48,10 @@ public class AppConfig {
 
   private static final String STOPWORD_TAG = "stopword";
 
+  private static final int DEFAULT_PARSE_CACHE_SIZE = 50000;
+
+  private static final double DEFAULT_DICTIONARY_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
   // Yaml properties
   private final String configFilePath;
   private final Map<String, Object> configMap;
@@ -56,6 +60,7 @@ public class AppConfig {
   private final String dictionary;
   private final String dictionaryLanguage;
   private final String dictionaryCleanupRegexp;
+  private final Double dictionaryFilterFalsePositiveRate;
   private final Integer definitionSize;
   private final Boolean displayOtherLemma;
   private final List<String> ignoreTags;
@@ -66,6 +71,10 @@ public class AppConfig {
 
   private final String assStyles;
   private final Map<String, String> properNouns;
+  private final Integer annotationThreads;
+  private final Integer parseCacheSize;
+  private final Integer udpipePoolSize;
+  private final Boolean udpipeSharedModel;
 
 
   /**
@@ -91,6 +100,14 @@ public class AppConfig {
     definitionSize = getConfigValue("definitionSize", Integer.class, 8);
     displayOtherLemma = getConfigValue("displayOtherLemma", Boolean.class);
 
+    // Validate dictionaryFilterFalsePositiveRate config
+    Number filterRate = getConfigValue("dictionaryFilterFalsePositiveRate", Number.class, DEFAULT_DICTIONARY_FILTER_FALSE_POSITIVE_RATE);
+    if (filterRate.doubleValue() < 0 || filterRate.doubleValue() >= 1) {
+      LOGGER.warn("config.yaml contains an invalid dictionaryFilterFalsePositiveRate value(must be between 0 and 1): " + filterRate);
+      filterRate = DEFAULT_DICTIONARY_FILTER_FALSE_POSITIVE_RATE;
+    }
+    dictionaryFilterFalsePositiveRate = filterRate.doubleValue();
+
     ignoreWords = getConfigList("ignoreWords", String.class);
     ignoreTags = getConfigList("ignoreTags", String.class);
 
@@ -127,6 +144,31 @@ public class AppConfig {
     // TODO: properNouns list provided by user for Japanese parsing
     // Ignore fo now
     properNouns = new HashMap<>();
+
+    // Validate annotationThreads config
+    Integer nbThreads = getConfigValue("annotationThreads", Integer.class, Runtime.getRuntime().availableProcessors());
+    if (nbThreads < 1) {
+      LOGGER.warn("config.yaml contains an invalid annotationThreads value(must be at least 1): " + nbThreads);
+      nbThreads = Runtime.getRuntime().availableProcessors();
+    }
+    annotationThreads = nbThreads;
+
+    // Validate parseCacheSize config
+    Integer cacheSize = getConfigValue("parseCacheSize", Integer.class, DEFAULT_PARSE_CACHE_SIZE);
+    if (cacheSize < 0) {
+      LOGGER.warn("config.yaml contains an invalid parseCacheSize value(must be positive or 0): " + cacheSize);
+      cacheSize = DEFAULT_PARSE_CACHE_SIZE;
+    }
+    parseCacheSize = cacheSize;
+
+    // Validate udpipePoolSize config
+    Integer poolSize = getConfigValue("udpipePoolSize", Integer.class, annotationThreads);
+    if (poolSize < 1) {
+      LOGGER.warn("config.yaml contains an invalid udpipePoolSize value(must be at least 1): " + poolSize);
+      poolSize = annotationThreads;
+    }
+    udpipePoolSize = poolSize;
+    udpipeSharedModel = getConfigValue("udpipeSharedModel", Boolean.class, true);
   }
 
   /**
@@ -202,6 +244,14 @@ public class AppConfig {
     return dictionaryCleanupRegexp;
   }
 
+  /**
+   * Proportion of the lookups of text that is not in the dictionary that are not rejected by the dictionary filter,
+   * 0 to disable the filter.
+   */
+  public Double getDictionaryFilterFalsePositiveRate() {
+    return dictionaryFilterFalsePositiveRate;
+  }
+
   /**
    * Font-size to use when writing dictionary definitions.
    */
@@ -256,5 +306,33 @@ public class AppConfig {
   public Map<String,String> getProperNouns() {
     return properNouns;
   }
+
+  /**
+   * Number of subtitle files to annotate in parallel.
+   */
+  public Integer getAnnotationThreads() {
+    return annotationThreads;
+  }
+
+  /**
+   * Number of parsed captions to keep in memory, 0 to disable the parse cache.
+   */
+  public Integer getParseCacheSize() {
+    return parseCacheSize;
+  }
+
+  /**
+   * Maximum number of captions parsed at the same time by UDPipe.
+   */
+  public Integer getUdpipePoolSize() {
+    return udpipePoolSize;
+  }
+
+  /**
+   * Whether parallel UDPipe parsers share one model, or each load their own copy.
+   */
+  public Boolean getUdpipeSharedModel() {
+    return udpipeSharedModel;
+  }
 }
 
@@ -38,9 +38,9 @@ class AppMain {
   private static final String APP_ISSUE_INFO = "\n(If you encounter a bug you can open an issue on GitHub "
       + "at https://github.com/juliango202/jijimaku/issues/new)\n\n";
 
-  private static final String CONFIG_FILE = "config.yaml";
+  static final String CONFIG_FILE = "config.yaml";
 
-  private static final String[] VALID_SUBFILE_EXT = {"srt","ass"};
+  static final String[] VALID_SUBFILE_EXT = {"srt","ass"};
 
 
   private AppGui gui;
@@ -50,6 +50,10 @@ class AppMain {
   private boolean initialized = false;
 
   public static void main(String[] args) {
+    // With arguments, run in command-line mode without GUI
+    if (args.length > 0) {
+      System.exit(AppCli.run(args));
+    }
     // Create GUI in the EDT
     SwingUtilities.invokeLater(AppMain::new);
   }
@@ -0,0 +1,36 @@
+package jijimaku.models;
+
+/**
+ * Result of the annotation of one subtitle file.
+ */
+public class AnnotationResult {
+
+  private final int nbCaptions;
+  private final int nbCaptionsAnnotated;
+  private final int nbAnnotations;
+
+  public AnnotationResult(int nbCaptions, int nbCaptionsAnnotated, int nbAnnotations) {
+    this.nbCaptions = nbCaptions;
+    this.nbCaptionsAnnotated = nbCaptionsAnnotated;
+    this.nbAnnotations = nbAnnotations;
+  }
+
+  public boolean isAnnotated() {
+    return nbCaptionsAnnotated > 0;
+  }
+
+  public int getNbCaptions() {
+    return nbCaptions;
+  }
+
+  public int getNbCaptionsAnnotated() {
+    return nbCaptionsAnnotated;
+  }
+
+  /**
+   * Number of dictionary definitions added to the captions.
+   */
+  public int getNbAnnotations() {
+    return nbAnnotations;
+  }
+}
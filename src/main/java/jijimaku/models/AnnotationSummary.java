@@ -0,0 +1,96 @@
+package jijimaku.models;
+
+/**
+ * Counters for the annotation of a directory of subtitle files.
+ */
+public class AnnotationSummary {
+
+  private int nbFiles = 0;
+  private int nbAnnotatedFiles = 0;
+  private int nbFailedFiles = 0;
+  private int nbCaptions = 0;
+  private int nbCaptionsAnnotated = 0;
+  private int nbAnnotations = 0;
+  private long wallTimeMs = 0;
+  private boolean cancelled = false;
+
+  /**
+   * Count a processed file.
+   * @param result the annotation result, or null if the file was skipped(e.g. already annotated)
+   */
+  public void addFile(AnnotationResult result) {
+    nbFiles++;
+    if (result == null) {
+      return;
+    }
+    if (result.isAnnotated()) {
+      nbAnnotatedFiles++;
+    }
+    nbCaptions += result.getNbCaptions();
+    nbCaptionsAnnotated += result.getNbCaptionsAnnotated();
+    nbAnnotations += result.getNbAnnotations();
+  }
+
+  /**
+   * Count a file that could not be annotated because of an error.
+   */
+  public void addFailedFile() {
+    nbFiles++;
+    nbFailedFiles++;
+  }
+
+  public void setWallTimeMs(long wallTimeMs) {
+    this.wallTimeMs = wallTimeMs;
+  }
+
+  public void setCancelled(boolean cancelled) {
+    this.cancelled = cancelled;
+  }
+
+  public int getNbFiles() {
+    return nbFiles;
+  }
+
+  public int getNbAnnotatedFiles() {
+    return nbAnnotatedFiles;
+  }
+
+  public int getNbFailedFiles() {
+    return nbFailedFiles;
+  }
+
+  public int getNbCaptions() {
+    return nbCaptions;
+  }
+
+  public int getNbCaptionsAnnotated() {
+    return nbCaptionsAnnotated;
+  }
+
+  public int getNbAnnotations() {
+    return nbAnnotations;
+  }
+
+  public long getWallTimeMs() {
+    return wallTimeMs;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Return the summary as a one line JSON object.
+   */
+  public String toJson() {
+    return "{\"files\":" + nbFiles
+        + ",\"annotatedFiles\":" + nbAnnotatedFiles
+        + ",\"failedFiles\":" + nbFailedFiles
+        + ",\"captions\":" + nbCaptions
+        + ",\"annotatedCaptions\":" + nbCaptionsAnnotated
+        + ",\"annotations\":" + nbAnnotations
+        + ",\"wallTimeMs\":" + wallTimeMs
+        + ",\"cancelled\":" + cancelled
+        + "}";
+  }
+}
@@ -0,0 +1,41 @@
+package jijimaku.models;
+
+/**
+ * One caption of a subtitle file.
+ * Whatever the subtitle format, the lines of the caption text are separated by LINE_BREAK.
+ */
+public class Caption {
+
+  public static final String LINE_BREAK = "<br />";
+
+  private final int start;
+  private final int end;
+  private String content;
+
+  /**
+   * Constructor.
+   * @param start display start time in milliseconds
+   * @param end display end time in milliseconds
+   */
+  public Caption(int start, int end, String content) {
+    this.start = start;
+    this.end = end;
+    this.content = content;
+  }
+
+  public int getStart() {
+    return start;
+  }
+
+  public int getEnd() {
+    return end;
+  }
+
+  public String getContent() {
+    return content;
+  }
+
+  public void setContent(String content) {
+    this.content = content;
+  }
+}
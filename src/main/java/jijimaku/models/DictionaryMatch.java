@@ -46,6 +46,13 @@ public class DictionaryMatch {
     return tokens.stream().anyMatch(t -> t.getPartOfSpeech().equals(LangParser.PosTag.VERB));
   }
 
+  /**
+   * Return true if one of the entries has one of the tags of a mask built by the dictionary tag table.
+   */
+  public boolean hasAnyTag(long[] tagMask) {
+    return dictionaryEntries.stream().anyMatch(de -> de.hasAnyTag(tagMask));
+  }
+
   /**
    * For now a dictionary matches that contains several entries is assigned
    * all the tags of all the entries.
@@ -2,6 +2,7 @@ package jijimaku.models;
 
 import jijimaku.AppConfig;
 import jijimaku.services.dictionary.Dictionary;
+import jijimaku.services.dictionary.LanguageTags;
 import jijimaku.services.langparser.LangParser;
 
 /**
@@ -12,11 +13,30 @@ public class ServicesParam {
   private final AppConfig config;
   private final Dictionary dictionary;
   private final LangParser parser;
+  private final LanguageTags languageTags;
+  private final String fingerprint;
 
-  public ServicesParam(AppConfig config, Dictionary dictionary, LangParser parser) {
+  /**
+   * Constructor.
+   * @param fingerprint hash of what determines the annotation of a file(dictionary, config, parser), null if unknown
+   */
+  public ServicesParam(AppConfig config, Dictionary dictionary, LangParser parser, LanguageTags languageTags, String fingerprint) {
     this.dictionary = dictionary;
     this.parser = parser;
     this.config = config;
+    this.languageTags = languageTags;
+    this.fingerprint = fingerprint;
+  }
+
+  public ServicesParam(AppConfig config, Dictionary dictionary, LangParser parser, LanguageTags languageTags) {
+    this(config, dictionary, parser, languageTags, null);
+  }
+
+  /**
+   * Constructor for services whose language tags are not cached.
+   */
+  public ServicesParam(AppConfig config, Dictionary dictionary, LangParser parser) {
+    this(config, dictionary, parser, new LanguageTags(dictionary, null));
   }
 
   public AppConfig getConfig() {
@@ -30,4 +50,12 @@ public class ServicesParam {
   public LangParser getParser() {
     return parser;
   }
+
+  public LanguageTags getLanguageTags() {
+    return languageTags;
+  }
+
+  public String getFingerprint() {
+    return fingerprint;
+  }
 }
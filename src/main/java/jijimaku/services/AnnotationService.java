@@ -1,33 +1,41 @@
 package jijimaku.services;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import jijimaku.AppConfig;
+import jijimaku.models.AnnotationResult;
+import jijimaku.models.Caption;
 import jijimaku.models.DictionaryMatch;
 import jijimaku.models.ServicesParam;
 import jijimaku.services.dictionary.Dictionary;
 import jijimaku.services.dictionary.DictionaryEntry;
+import jijimaku.services.dictionary.LanguageTags;
+import jijimaku.services.dictionary.LemmaCursor;
+import jijimaku.services.dictionary.MultiKeyCursor;
 import jijimaku.services.langparser.LangParser;
 import jijimaku.services.langparser.LangParser.TextToken;
 import jijimaku.services.langrules.LangRules;
+import jijimaku.utils.AssWriter;
 import jijimaku.utils.FileManager;
 import jijimaku.utils.SubtitleFile;
-
-import subtitleFile.Caption;
-import subtitleFile.FatalParsingException;
+import jijimaku.utils.SubtitleReader;
 
 /**
  * Service that add the dictionary anotation to the subtitles.
+ * The service holds no per-file state, so several subtitle files can be annotated in parallel with the same instance.
  */
 public class AnnotationService {
   private static final Logger LOGGER;
@@ -45,33 +53,31 @@ public class AnnotationService {
           LangParser.PosTag.X
   );
 
+  // Number of captions parsed at once
+  private static final int PARSE_BATCH_SIZE = 256;
+
   private final AppConfig config;
   private final LangParser langParser;
   private final Dictionary dict;
   private final List<String> ignoreWordsList;
+  // Masks of the ignoreTags config in the dictionary and in the language tags
+  private final long[] ignoreTagsMask;
+  private final LanguageTags languageTags;
+  private final long[] ignoreLanguageTagsMask;
   private final EnumSet<LangParser.PosTag> partOfSpeechToAnnotate;
-  private LangRules langRules;
+  private final LangRules langRules;
 
   public AnnotationService(ServicesParam services) {
     config = services.getConfig();
     langParser = services.getParser();
     dict = services.getDictionary();
     ignoreWordsList = config.getIgnoreWords();
+    ignoreTagsMask = dict.getTagTable().mask(config.getIgnoreTags());
+    languageTags = services.getLanguageTags();
+    ignoreLanguageTagsMask = languageTags.mask(config.getIgnoreTags());
     partOfSpeechToAnnotate = config.getPartOfSpeechToAnnotate();
 
-    // Instantiate the class for language-specific rules if available
-    langRules = null;
-    String language = langParser.getLanguage().toString();
-    try {
-      Class cls = Class.forName("jijimaku.services.langrules.LangRules"
-          + language.substring(0, 1).toUpperCase() + language.substring(1).toLowerCase());
-      langRules = (LangRules) cls.newInstance();
-      LOGGER.debug("Using " + language + " specific annotation rules");
-    } catch (ClassNotFoundException exc) {
-      LOGGER.debug("No specific annotation rules found for language " + language);
-    } catch (IllegalAccessException | InstantiationException exc) {
-      LOGGER.error("Could not instantiate LangRules class for language " + language);
-    }
+    langRules = LangRules.forLanguage(langParser.getLanguage());
   }
 
   /**
@@ -96,51 +102,61 @@ public class AnnotationService {
   }
 
   /**
-   * Search a list of tokens in the dictionary.
+   * Search the longest sequence of tokens, starting with the first token, that matches a dictionary lemma.
+   * The lemma can match the first canonical form, the second canonical form, or the text form of the tokens(by priority).
+   * Failing that, the first canonical form can match the kana reading of an entry(e.g. ねこ for 猫).
+   * The forms are walked in the dictionary one token at a time, and the search stops
+   * as soon as there is no lemma or reading starting with any of them, so that long captions do not cost more lookups.
+   * Forms that are identical are walked only once.
    *
-   * @return a DictionaryMatch entry if the provided tokens match a definition, null otherwise.
+   * @return a DictionaryMatch entry if the first tokens match a definition, null otherwise.
    */
-  private DictionaryMatch dictionaryMatch(List<TextToken> tokens) {
-    if (tokens.isEmpty()) {
-      return null;
-    }
+  private DictionaryMatch longestDictionaryMatch(List<TextToken> tokens) {
     String ws = langParser.getWordSeparator();
+    MultiKeyCursor formsCursor = new MultiKeyCursor(dict.cursor(), 3);
+    LemmaCursor readingCursor = dict.readingCursor();
+    boolean formsFound = true;
+    boolean readingFound = true;
+
+    // Cursor and number of tokens of the longest match so far, its entries are only read once the walk is over
+    LemmaCursor matchCursor = null;
+    int matchLength = 0;
+    for (int i = 0; i < tokens.size() && (formsFound || readingFound); i++) {
+      TextToken token = tokens.get(i);
+      if (i > 0 && !ws.isEmpty()) {
+        formsFound = formsFound && formsCursor.advance(ws);
+        readingFound = readingFound && readingCursor.advance(ws);
+      }
+      formsFound = formsFound && formsCursor.advance(token.getFirstCanonicalForm(), token.getSecondCanonicalForm(), token.getLowerCaseTextForm());
+      readingFound = readingFound && readingCursor.advance(token.getFirstCanonicalForm());
 
-    // If there is no entry search for the actual text form
-    String firstCanonicalForm = tokens.stream().map(TextToken::getFirstCanonicalForm).collect(Collectors.joining(ws));
-    List<DictionaryEntry> entries = dict.search(firstCanonicalForm);
-    if (!entries.isEmpty()) {
-      return new DictionaryMatch(tokens, entries, ws);
-    }
-
-    // If there is no entry, search the second canonical form
-    String secondCanonicalForm = tokens.stream().map(TextToken::getSecondCanonicalForm).collect(Collectors.joining(ws));
-    entries = dict.search(secondCanonicalForm);
-    if (!entries.isEmpty()) {
-      return new DictionaryMatch(tokens, entries, ws);
-    }
-
-    // If still no entry, search for the actual text form
-    String textForm = tokens.stream().map(tt -> tt.getTextForm().toLowerCase()).collect(Collectors.joining(ws));
-    entries = dict.search(textForm);
-    if (!entries.isEmpty()) {
-      return new DictionaryMatch(tokens, entries, ws);
+      LemmaCursor cursor = formsFound ? formsCursor.matchingCursor() : null;
+      if (cursor == null && readingFound && readingCursor.hasEntries()) {
+        cursor = readingCursor.copy();
+      }
+      if (cursor != null) {
+        matchCursor = cursor;
+        matchLength = i + 1;
+      }
     }
-
-    return null;
+    return matchCursor != null ? new DictionaryMatch(tokens.subList(0, matchLength), matchCursor.entries(), ws) : null;
   }
 
   /**
    * Return all the dictionary matches for one caption.
    * For example the parsed sentence => I|think|he|made|it|up should likely return four
    * DictionaryMatches => I|to think|he|to make it up
-   * For now use simple prefix matching
-   * Could potentially be improved using https://github.com/robert-bor/aho-corasick
+   * Matches are searched from left to right, keeping the longest match at each position.
    */
-  private List<DictionaryMatch> getDictionaryMatches(String caption) {
+  List<DictionaryMatch> getDictionaryMatches(String caption) {
     // A syntaxic parse of the caption returns a list of tokens.
-    List<TextToken> captionTokens = langParser.parse(caption);
+    return getDictionaryMatches(langParser.parse(caption));
+  }
 
+  /**
+   * Return all the dictionary matches for the parsed tokens of one caption.
+   */
+  private List<DictionaryMatch> getDictionaryMatches(List<TextToken> captionTokens) {
     // Apply language specific filter
     if (langRules != null) {
       captionTokens = langRules.filterTokens(captionTokens);
@@ -157,13 +173,7 @@ public class AnnotationService {
       }
 
       // Find the next DictionaryMatch
-      // Start with all tokens and remove one by one until we have a match
-      List<TextToken> maximumTokens = new ArrayList<>(captionTokens);
-      DictionaryMatch match = dictionaryMatch(maximumTokens);
-      while (match == null && !maximumTokens.isEmpty()) {
-        maximumTokens = maximumTokens.subList(0, maximumTokens.size() - 1);
-        match = dictionaryMatch(maximumTokens);
-      }
+      DictionaryMatch match = longestDictionaryMatch(captionTokens);
 
       // If no match is found, or the match is invalid for this language, just skip the current token
       if (match == null || (langRules != null && !langRules.isValidMatch(match))) {
@@ -181,8 +191,12 @@ public class AnnotationService {
   /**
    * Filter the DictionaryMatches to display depending on user preferences.
    */
-  private List<DictionaryMatch> getFilteredMatches(String caption) {
-    List<DictionaryMatch> allMatches = getDictionaryMatches(caption);
+  List<DictionaryMatch> getFilteredMatches(String caption) {
+    return getFilteredMatches(langParser.parse(caption));
+  }
+
+  private List<DictionaryMatch> getFilteredMatches(List<TextToken> captionTokens) {
+    List<DictionaryMatch> allMatches = getDictionaryMatches(captionTokens);
     return allMatches.stream().filter(dm -> {
 
       // Ignore matches that don't have any partOfSpeech to annotate
@@ -196,11 +210,15 @@ public class AnnotationService {
       }
 
       // Filter using ignoreTags option
-      Optional<String> tagMatch = dm.getTags().stream()
-          .filter(t -> config.getIgnoreTags().contains(t))
-          .findFirst();
-      if (tagMatch.isPresent()) {
-        LOGGER.debug("{} ignored because tag {} is present in ignoreTags config", dm.getTextForm(), tagMatch.get());
+      if (dm.hasAnyTag(ignoreTagsMask)
+          || dm.getDictionaryEntries().stream().anyMatch(de -> languageTags.hasAnyTag(de, ignoreLanguageTagsMask))) {
+        if (LOGGER.isDebugEnabled()) {
+          Optional<String> tagMatch = Stream.concat(dm.getTags().stream(),
+              dm.getDictionaryEntries().stream().flatMap(de -> languageTags.getTags(de).stream()))
+              .filter(t -> config.getIgnoreTags().contains(t))
+              .findFirst();
+          LOGGER.debug("{} ignored because tag {} is present in ignoreTags config", dm.getTextForm(), tagMatch.orElse(null));
+        }
         return false;
       }
 
@@ -214,7 +232,7 @@ public class AnnotationService {
     }).collect(Collectors.toList());
   }
 
-  private List<String> annotateDictionaryMatch(DictionaryMatch match, String color) {
+  List<String> annotateDictionaryMatch(DictionaryMatch match, String color) {
     Boolean displayOtherLemma = config.getDisplayOtherLemma();
     List<String> tokenDefs = new ArrayList<>();
     for (DictionaryEntry def : match.getDictionaryEntries()) {
@@ -260,7 +278,7 @@ public class AnnotationService {
   /**
    * Clean up caption text before parsing.
    */
-  private String cleanCaptionText(String caption) {
+  String cleanCaptionText(String caption) {
     String cleaned = caption.trim();
     // Replace newlines(<br>) by word separator
     cleaned = cleaned.replaceAll("<br\\s*/?>", langParser.getWordSeparator());
@@ -272,45 +290,88 @@ public class AnnotationService {
   }
 
   /**
-   * Parse a subtitle file and add annotation if dictionary definitions were found.
+   * Read a subtitle file, and write it to out in ASS format with the annotations of the dictionary definitions found.
+   * The captions are read, parsed and written by batches of PARSE_BATCH_SIZE, parsers being faster on batches,
+   * so the memory used does not depend on the file size.
+   * Throw a CancellationException if the thread is interrupted in the middle of the file.
    *
-   * @return true if at least one annotation was added, false otherwise.
+   * @return the counters of the annotated file, nothing was annotated if its number of annotated captions is 0.
    */
-  public String[] annotateSubtitleFile(String fileName, String fileContents) throws IOException, FatalParsingException {
-    SubtitleFile subtitle = new SubtitleFile(fileName, fileContents, config.getSubtitleStyles());
-    subtitle.addJijimakuMark(dict.getTitle());
-
-    // Loop through the subtitle file captions one by one
-    while (subtitle.hasNext()) {
-      Caption caption = subtitle.nextCaption();
-      LOGGER.debug("{} -> {}", caption.start, caption.end);
-      String currentCaptionText = cleanCaptionText(caption.content);
-      List<String> colors = new ArrayList<>(config.getHighlightColors());
-
-      // Parse subtitle and lookup definitions
-      List<String> alreadyDefinedWords = new ArrayList<>();
-      List<String> annotations = new ArrayList<>();
-      List<DictionaryMatch> filteredMatches = getFilteredMatches(currentCaptionText);
-      if (filteredMatches.isEmpty()) {
-        LOGGER.debug("No dictionary match.");
-      } else {
-        LOGGER.debug("dictionary matches: " + filteredMatches.stream().map(DictionaryMatch::getTextForm).collect(Collectors.joining(", ")));
-      }
-
-      for (DictionaryMatch match : filteredMatches) {
-        String color = colors.iterator().next();
-        List<String> tokenDefs = annotateDictionaryMatch(match, color);
-        if (!tokenDefs.isEmpty() && !alreadyDefinedWords.contains(match.getTextForm())) {
-          annotations.addAll(tokenDefs);
-          // Set a different color for words that are defined
-          subtitle.colorizeCaptionWord(match.getTextForm(), color, langParser.getWordSeparator());
-          Collections.rotate(colors, -1);
-          alreadyDefinedWords.add(match.getTextForm());
+  public AnnotationResult annotateSubtitleFile(SubtitleReader subtitle, Writer out) throws IOException {
+    AssWriter assWriter = new AssWriter(out, subtitle.getTitle(), config.getSubtitleStyles());
+    int nbCaptions = 0;
+    int nbCaptionsAnnotated = 0;
+    int nbAnnotations = 0;
+    List<Caption> captions = readCaptions(subtitle);
+    // There is no room for the mark in the rare case of a caption at the very start
+    if (!captions.isEmpty() && captions.get(0).getStart() > 0) {
+      assWriter.write(SubtitleFile.getJijimakuMark(dict.getTitle()), SubtitleFile.SubStyle.DEFINITION);
+    }
+    while (!captions.isEmpty()) {
+      List<String> captionTexts = captions.stream().map(c -> cleanCaptionText(c.getContent())).collect(Collectors.toList());
+      List<List<TextToken>> captionsTokens = langParser.parseAll(captionTexts);
+
+      // Loop through the subtitle file captions one by one
+      for (int i = 0; i < captions.size(); i++) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new CancellationException("Annotation of " + subtitle.getTitle() + " was interrupted");
+        }
+        Caption caption = captions.get(i);
+        List<String> annotations = annotateCaption(caption, captionsTokens.get(i));
+        assWriter.write(caption, SubtitleFile.SubStyle.DEFAULT);
+        if (!annotations.isEmpty()) {
+          assWriter.write(SubtitleFile.getAnnotationCaption(caption, annotations), SubtitleFile.SubStyle.DEFINITION);
+          nbCaptionsAnnotated++;
+          nbAnnotations += annotations.size();
         }
       }
-      subtitle.annotate(annotations);
+      nbCaptions += captions.size();
+      captions = readCaptions(subtitle);
     }
+    assWriter.flush();
+    return new AnnotationResult(nbCaptions, nbCaptionsAnnotated, nbAnnotations);
+  }
 
-    return subtitle.getNbCaptionAnnotated() == 0 ? null : subtitle.toAssFormat();
+  /**
+   * Read the next batch of captions, the batch is empty at the end of the file.
+   */
+  private static List<Caption> readCaptions(SubtitleReader subtitle) throws IOException {
+    List<Caption> captions = new ArrayList<>(PARSE_BATCH_SIZE);
+    Caption caption;
+    while (captions.size() < PARSE_BATCH_SIZE && (caption = subtitle.next()) != null) {
+      captions.add(caption);
+    }
+    return captions;
+  }
+
+  /**
+   * Colorize the words of the caption that have a definition, and return the definitions to display with the caption.
+   */
+  private List<String> annotateCaption(Caption caption, List<TextToken> captionTokens) {
+    LOGGER.debug("{} -> {}", caption.getStart(), caption.getEnd());
+    List<String> colors = new ArrayList<>(config.getHighlightColors());
+
+    // Lookup definitions
+    List<String> alreadyDefinedWords = new ArrayList<>();
+    List<String> annotations = new ArrayList<>();
+    List<DictionaryMatch> filteredMatches = getFilteredMatches(captionTokens);
+    if (filteredMatches.isEmpty()) {
+      LOGGER.debug("No dictionary match.");
+    } else {
+      LOGGER.debug("dictionary matches: " + filteredMatches.stream().map(DictionaryMatch::getTextForm).collect(Collectors.joining(", ")));
+    }
+
+    for (DictionaryMatch match : filteredMatches) {
+      String color = colors.iterator().next();
+      List<String> tokenDefs = annotateDictionaryMatch(match, color);
+      if (!tokenDefs.isEmpty() && !alreadyDefinedWords.contains(match.getTextForm())) {
+        annotations.addAll(tokenDefs);
+        // Set a different color for words that are defined
+        SubtitleFile.colorizeCaptionWord(caption, match.getTextForm(), color, langParser.getWordSeparator());
+        Collections.rotate(colors, -1);
+        alreadyDefinedWords.add(match.getTextForm());
+      }
+    }
+    return annotations;
   }
 }
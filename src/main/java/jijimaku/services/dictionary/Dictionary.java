@@ -1,22 +1,10 @@
 package jijimaku.services.dictionary;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.Logger;
 
-import jijimaku.AppConfig;
-import jijimaku.errors.UnexpectedCriticalError;
 import jijimaku.services.LanguageService.Language;
-import jijimaku.utils.FileManager;
 
 
 /**
@@ -27,94 +15,39 @@ public interface Dictionary {
 
   String LANGUAGE_TAGS_DIR = "language-tags/";
 
-  // Default cleanup of dictionary definitions
-  // to get rid of things not important before displaying the text on screen.
-  List<String> DEFAULT_CLEANUP_RE = Arrays.asList(
-      "【例】.*",  // Remove example sentences in Japanese dictionaries
-      "\\(用例\\).*"  // Remove example sentences in Japanese dictionaries
-  );
-
-  Map<String, List<DictionaryEntry>> entriesByLemma = new HashMap<>();
-
-
   /**
    * Search for a lemma in the dictionary.
    */
   default List<DictionaryEntry> search(String w) {
-    if (entriesByLemma.containsKey(w)) {
-      return entriesByLemma.get(w);
-    } else {
-      return java.util.Collections.emptyList();
-    }
+    return getIndex().search(w);
   }
 
   /**
-   * Add a dictionary entry.
+   * Return a cursor to walk the dictionary lemmas prefix by prefix.
    */
-  default void addEntry(List<String> lemmas, List<String> senses, List<String> pronunciations, Set<String> tags, AppConfig config) {
-    // Cleanup senses and add default tags for the entry
-    senses = cleanupSenses(senses, config.getDictionaryCleanupRegexp());
-    DictionaryEntry dictEntry = new DictionaryEntry(lemmas, senses, pronunciations, tags);
-
-    // Index entries by lemma
-    for (String lemma : lemmas) {
-      if (!entriesByLemma.containsKey(lemma)) {
-        entriesByLemma.put(lemma, new ArrayList<>());
-      }
-      entriesByLemma.get(lemma).add(dictEntry);
-    }
+  default LemmaCursor cursor() {
+    return getIndex().cursor();
   }
 
   /**
-   * Cleanup dictionary definitions according to the dictionaryCleanupRegexp config option
-   * and apply default cleanup regexps.
+   * Return a cursor to walk the kana readings of the dictionary entries prefix by prefix.
    */
-  default List<String> cleanupSenses(List<String> senses, String dictionaryCleanupRegexp) {
-    return senses.stream()
-        .map(s -> {
-          for (String re : DEFAULT_CLEANUP_RE) {
-            s = s.replaceAll(re, "");
-          }
-          if (dictionaryCleanupRegexp != null) {
-            s = s.replaceAll(dictionaryCleanupRegexp, "");
-          }
-          return s;
-        })
-        .collect(Collectors.toList());
+  default LemmaCursor readingCursor() {
+    return getIndex().readingCursor();
   }
 
   /**
-   * Load default word tags for the dictionary language.
-   * For each language there is a directory containing the language tags text files(*.txt)
-   * One text file corresponds to one tag, and must contain one lemma to be tagged per line
+   * Return the tag table of the dictionary entries.
    */
-  default void loadLanguageTags() {
-    String tagsDir = FileManager.getAppDirectory() + "/" + LANGUAGE_TAGS_DIR + getLanguageFrom().toString().toLowerCase();
-    if (!Files.exists(Paths.get(tagsDir))) {
-      getLogger().warn("No default language tags for language {}", getLanguageFrom().toString());
-      return;
-    }
-    try {
-      Files.list(Paths.get(tagsDir))
-          .filter(s -> s.toString().endsWith(".txt"))
-          .forEach(path -> {
-            String fileName = path.getFileName().toString();
-            String tag = fileName.substring(0, fileName.lastIndexOf("."));
-            try {
-              Files.lines(path).flatMap(l -> search(l).stream()).forEach(entry -> entry.addTag(tag));
-            } catch (IOException exc) {
-              getLogger().debug(exc);
-              getLogger().error("Error while loading {} language tags {}", getLanguageFrom().toString(), tag);
-              throw new UnexpectedCriticalError();
-            }
-          });
-    } catch (IOException exc) {
-      getLogger().debug(exc);
-      getLogger().error("Error while loading {} language tags", getLanguageFrom().toString());
-      throw new UnexpectedCriticalError();
-    }
+  default TagTable getTagTable() {
+    return getIndex().getTagTable();
   }
 
+  /**
+   * The immutable lemma index owned by this dictionary.
+   */
+  DictionaryIndex getIndex();
+
   Logger getLogger();
 
   String getTitle();
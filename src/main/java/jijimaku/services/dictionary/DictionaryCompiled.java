@@ -0,0 +1,241 @@
+package jijimaku.services.dictionary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jijimaku.AppConfig;
+import jijimaku.errors.UnexpectedCriticalError;
+import jijimaku.services.LanguageService;
+import jijimaku.services.LanguageService.Language;
+import jijimaku.utils.FileManager;
+
+
+/**
+ * Dictionary loaded from a compiled snapshot of another dictionary(JIJI, LD2...).
+ * Parsing a big source dictionary takes a lot of time and memory, so the result is written once to a binary file
+ * which is then memory-mapped on the next launches: opening it is almost instantaneous and
+ * only the parts of the file actually used by lookups are read from disk.
+ *
+ * <p>The snapshot file name contains a hash of the source file and of the config options used when loading it.
+ * The language tags are not part of the snapshot, they are cached separately by LanguageTags.
+ */
+public class DictionaryCompiled implements Dictionary {
+  private static final Logger LOGGER;
+
+  static {
+    System.setProperty("logDir", FileManager.getLogsDirectory());
+    LOGGER = LogManager.getLogger();
+  }
+
+  private static final String COMPILED_EXT = ".jijidict";
+  private static final byte[] MAGIC = "JIJIDICT".getBytes(StandardCharsets.US_ASCII);
+  private static final int FORMAT_VERSION = 5;
+  // Position of the index section offset in the header, it is written once the rest of the header is known
+  private static final int INDEX_OFFSET_POSITION = MAGIC.length + 4;
+
+  private final String title;
+  private final Language languageFrom;
+  private final DictionaryIndex index;
+
+  private DictionaryCompiled(String title, Language languageFrom, DictionaryIndex index) {
+    this.title = title;
+    this.languageFrom = languageFrom;
+    this.index = index;
+  }
+
+  /**
+   * Return the location of the compiled snapshot for a source dictionary file.
+   * The snapshot is keyed by the source file contents and the config options that change the loaded entries.
+   * For a StarDict dictionary the source is the .ifo file, the size and modification time of its data files are used too.
+   */
+  public static File getCompiledFile(File sourceFile, AppConfig config) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(Integer.toString(FORMAT_VERSION).getBytes(StandardCharsets.UTF_8));
+      try (InputStream in = new FileInputStream(sourceFile)) {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          digest.update(buffer, 0, read);
+        }
+      }
+      if (sourceFile.getName().toLowerCase().endsWith(DictionaryStarDict.IFO_EXT)) {
+        for (File dataFile : DictionaryStarDict.getDataFiles(sourceFile)) {
+          digest.update(("\n" + dataFile.getName() + " " + dataFile.length() + " " + dataFile.lastModified()).getBytes(StandardCharsets.UTF_8));
+        }
+      }
+      digest.update(("\n" + config.getDictionaryCleanupRegexp()).getBytes(StandardCharsets.UTF_8));
+      digest.update(("\n" + config.getDictionaryLanguage()).getBytes(StandardCharsets.UTF_8));
+      digest.update(("\n" + config.getDictionaryFilterFalsePositiveRate()).getBytes(StandardCharsets.UTF_8));
+
+      StringBuilder hash = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hash.append(String.format("%02x", b));
+      }
+      return new File(FileManager.getCacheDirectory() + "/" + sourceFile.getName() + "-" + hash + COMPILED_EXT);
+    } catch (IOException | NoSuchAlgorithmException exc) {
+      LOGGER.debug(exc);
+      LOGGER.error("Problem reading dictionary file {}", sourceFile.getAbsolutePath());
+      throw new UnexpectedCriticalError();
+    }
+  }
+
+  /**
+   * Return the location of the language tags cache for a compiled snapshot.
+   * It is named like the snapshot so that it is removed with it when the source dictionary changes.
+   */
+  public static File getLanguageTagsFile(File compiledFile) {
+    String name = compiledFile.getName();
+    return new File(compiledFile.getParentFile(), name.substring(0, name.length() - COMPILED_EXT.length()) + ".tags" + COMPILED_EXT);
+  }
+
+  /**
+   * Read the magic and the format version at the start of a snapshot.
+   * @return true if it is a compiled dictionary in the current format
+   */
+  private static boolean readFormat(DataInputStream in) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    return Arrays.equals(magic, MAGIC) && in.readInt() == FORMAT_VERSION;
+  }
+
+  /**
+   * Return the language of a compiled dictionary from the header of its snapshot, without opening its index.
+   * @return the language, or null if there is no valid and up-to-date snapshot in this file.
+   */
+  public static Language readLanguageFrom(File compiledFile) {
+    if (!compiledFile.exists()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(compiledFile)))) {
+      if (!readFormat(in)) {
+        return null;
+      }
+      // Index offset and title
+      in.readLong();
+      in.readUTF();
+      return LanguageService.getLanguageFromStr(in.readUTF());
+    } catch (IOException exc) {
+      LOGGER.debug("Cannot read compiled dictionary {}", compiledFile.getAbsolutePath(), exc);
+      return null;
+    }
+  }
+
+  /**
+   * Open a compiled dictionary.
+   * @return the dictionary, or null if there is no valid and up-to-date snapshot in this file.
+   */
+  public static DictionaryCompiled open(File compiledFile) {
+    if (!compiledFile.exists()) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(compiledFile.toPath(), StandardOpenOption.READ)) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      if (!readFormat(in)) {
+        LOGGER.debug("{} is not a compiled dictionary in the current format", compiledFile.getName());
+        return null;
+      }
+      long indexOffset = in.readLong();
+      String title = in.readUTF();
+      Language languageFrom = LanguageService.getLanguageFromStr(in.readUTF());
+      if (languageFrom == null) {
+        LOGGER.debug("{} has an unknown language", compiledFile.getName());
+        return null;
+      }
+
+      // The mapping stays valid after the channel is closed
+      ByteBuffer indexBuffer = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, channel.size() - indexOffset);
+      DictionaryCompiled dict = new DictionaryCompiled(title, languageFrom, new DictionaryIndexMapped(indexBuffer));
+      LOGGER.info("Using {} dictionary '{}'", languageFrom, title);
+      LOGGER.debug("Opened compiled dictionary {} ({} lemmas)", compiledFile.getName(), dict.getIndex().size());
+      return dict;
+    } catch (IOException exc) {
+      LOGGER.debug("Cannot open compiled dictionary {}", compiledFile.getAbsolutePath(), exc);
+      return null;
+    }
+  }
+
+  /**
+   * Write a compiled snapshot of a loaded dictionary, and remove the outdated snapshots of the same source file.
+   * Failing to write the snapshot is not critical, the dictionary will just be parsed again next time.
+   */
+  public static void compile(Dictionary dictionary, File compiledFile) {
+    Path target = compiledFile.toPath();
+    Path tmp = Paths.get(compiledFile.getPath() + ".tmp");
+    try {
+      Files.createDirectories(target.getParent());
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        out.write(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(0);
+        out.writeUTF(dictionary.getTitle());
+        out.writeUTF(dictionary.getLanguageFrom().toString());
+        out.flush();
+
+        long indexOffset = channel.position();
+        DictionaryIndexMapped.write(dictionary.getIndex(), channel);
+        ByteBuffer indexOffsetBuffer = ByteBuffer.allocate(8).putLong(0, indexOffset);
+        channel.write(indexOffsetBuffer, INDEX_OFFSET_POSITION);
+      }
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      LOGGER.debug("Compiled dictionary written to {}", compiledFile.getAbsolutePath());
+
+      // Snapshot names are <source file name>-<hash>.jijidict, their language tags <source file name>-<hash>.tags.jijidict
+      String sourcePrefix = compiledFile.getName().substring(0, compiledFile.getName().lastIndexOf('-') + 1);
+      Path targetTags = getLanguageTagsFile(compiledFile).toPath();
+      try (Stream<Path> cached = Files.list(target.getParent())) {
+        for (Path outdated : cached.filter(p -> !p.equals(target) && !p.equals(targetTags)
+            && p.getFileName().toString().startsWith(sourcePrefix)
+            && p.getFileName().toString().endsWith(COMPILED_EXT)).collect(Collectors.toList())) {
+          Files.deleteIfExists(outdated);
+        }
+      }
+    } catch (IOException exc) {
+      LOGGER.debug(exc);
+      LOGGER.warn("Could not write the compiled dictionary to {}", compiledFile.getAbsolutePath());
+      tmp.toFile().delete();
+    }
+  }
+
+  public DictionaryIndex getIndex() {
+    return index;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public Language getLanguageFrom() {
+    return languageFrom;
+  }
+
+  public Logger getLogger() {
+    return LOGGER;
+  }
+}
@@ -1,6 +1,5 @@
 package jijimaku.services.dictionary;
 
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -29,24 +28,45 @@ public class DictionaryEntry {
   private final List<String> senses;
   private final List<String> pronunciations;
   private final Integer frequency;
-
-  private Set<String> tags;
-
-  public DictionaryEntry(List<String> lemmas, List<String> senses, List<String> pronunciations, Set<String> tags) {
+  // Tags of the entry as a bitset of the ids of the dictionary tag table, null if the entry has no tag
+  private final TagTable tagTable;
+  private final long[] tagBits;
+
+  /**
+   * Constructor.
+   * @param tagTable tag table of the dictionary, the tags are added to it
+   */
+  public DictionaryEntry(List<String> lemmas, List<String> senses, List<String> pronunciations, Set<String> tags, TagTable tagTable) {
     Objects.requireNonNull(lemmas, "lemmas should not be null");
     Objects.requireNonNull(senses, "senses should not be null");
     this.lemmas = lemmas;
     this.senses = senses;
     this.pronunciations = pronunciations;
-    this.tags = tags;
+    this.tagTable = tagTable;
+    this.tagBits = tagTable.internAll(tags);
     this.frequency = getFrequencyFromTags(tags);
   }
 
+  /**
+   * Restore an entry whose tags and frequency were already computed(e.g. read from a compiled dictionary).
+   */
+  DictionaryEntry(List<String> lemmas, List<String> senses, List<String> pronunciations, TagTable tagTable, long[] tagBits,
+                  Integer frequency) {
+    Objects.requireNonNull(lemmas, "lemmas should not be null");
+    Objects.requireNonNull(senses, "senses should not be null");
+    this.lemmas = lemmas;
+    this.senses = senses;
+    this.pronunciations = pronunciations;
+    this.tagTable = tagTable;
+    this.tagBits = tagBits;
+    this.frequency = frequency;
+  }
+
   private Integer getFrequencyFromTags(Set<String> tags) {
     if (tags == null) {
       return null;
     }
-    List<String> frequencyTags = this.tags.stream()
+    List<String> frequencyTags = tags.stream()
         .filter(t -> t.startsWith(FREQUENCY_TAG_PREFIX)).collect(Collectors.toList());
     if (frequencyTags.isEmpty()) {
       return null;
@@ -71,19 +91,23 @@ public class DictionaryEntry {
     return pronunciations;
   }
 
+  /**
+   * Return the tags of the entry, or null if it has no tag.
+   * The set is decoded at each call, use hasAnyTag to check tags.
+   */
   public Set<String> getTags() {
-    return tags;
+    return tagTable.names(tagBits);
   }
 
-  public Integer getFrequency() {
-    return frequency;
+  /**
+   * Return true if the entry has one of the tags of a mask built by the tag table of its dictionary.
+   */
+  public boolean hasAnyTag(long[] tagMask) {
+    return TagTable.intersects(tagBits, tagMask);
   }
 
-  public void addTag(String tag) {
-    if (tags == null) {
-      tags = new HashSet<>();
-    }
-    tags.add(tag);
+  public Integer getFrequency() {
+    return frequency;
   }
 
   // Overrides equals ans hashCode for proper use in collections
@@ -106,7 +130,7 @@ public class DictionaryEntry {
     if (pronunciations != null ? !pronunciations.equals(otherEntry.pronunciations) : otherEntry.pronunciations != null) {
       return false;
     }
-    return tags != null ? tags.equals(otherEntry.tags) : otherEntry.tags == null;
+    return Objects.equals(getTags(), otherEntry.getTags());
   }
 
   @Override
@@ -114,7 +138,7 @@ public class DictionaryEntry {
     int result = lemmas.hashCode();
     result = 31 * result + senses.hashCode();
     result = 31 * result + (pronunciations != null ? pronunciations.hashCode() : 0);
-    result = 31 * result + (tags != null ? tags.hashCode() : 0);
+    result = 31 * result + Objects.hashCode(getTags());
     return result;
   }
 }
\ No newline at end of file
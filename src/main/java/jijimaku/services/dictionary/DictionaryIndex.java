@@ -0,0 +1,55 @@
+package jijimaku.services.dictionary;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+
+/**
+ * Read-only lemma index of a dictionary.
+ * An index is immutable once built, so it can be shared by several annotation threads without locking.
+ */
+public interface DictionaryIndex {
+
+  /**
+   * Return the entries indexed under a lemma, or an empty list if there is none.
+   */
+  List<DictionaryEntry> search(String lemma);
+
+  /**
+   * Return a new cursor to walk the lemmas of the index prefix by prefix.
+   */
+  LemmaCursor cursor();
+
+  /**
+   * Return a new cursor to walk the kana readings of the entry pronunciations prefix by prefix.
+   * The cursor is advanced with kana text as is, it is normalized like the readings(katakana to hiragana...).
+   */
+  LemmaCursor readingCursor();
+
+  /**
+   * Tag table of the entries of the index, to build tag masks for DictionaryEntry.hasAnyTag.
+   */
+  TagTable getTagTable();
+
+  /**
+   * Filter of the lemma prefixes checked before the index, or null if the index has none.
+   */
+  default LemmaFilter getFilter() {
+    return null;
+  }
+
+  /**
+   * Number of distinct lemmas in the index.
+   */
+  int size();
+
+  /**
+   * Call action for each lemma of the index with its entries(used to export the index).
+   */
+  void forEach(BiConsumer<String, List<DictionaryEntry>> action);
+
+  /**
+   * Call action for each normalized reading of the index with its entries(used to export the index).
+   */
+  void forEachReading(BiConsumer<String, List<DictionaryEntry>> action);
+}
@@ -0,0 +1,111 @@
+package jijimaku.services.dictionary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import jijimaku.AppConfig;
+
+
+/**
+ * Collect the entries of a dictionary while it is being loaded, then freeze them into an immutable DictionaryIndex.
+ * A builder is meant to be used by a single loading thread.
+ */
+public class DictionaryIndexBuilder {
+
+  // Default cleanup of dictionary definitions
+  // to get rid of things not important before displaying the text on screen.
+  private static final List<Pattern> DEFAULT_CLEANUP_RE = Arrays.asList(
+      Pattern.compile("【例】.*"),  // Remove example sentences in Japanese dictionaries
+      Pattern.compile("\\(用例\\).*")  // Remove example sentences in Japanese dictionaries
+  );
+
+  private final Pattern dictionaryCleanupRe;
+  private final double filterFalsePositiveRate;
+  private final Map<String, List<DictionaryEntry>> entriesByLemma = new HashMap<>();
+  // Entries by normalized kana reading of their pronunciations
+  private final Map<String, List<DictionaryEntry>> entriesByReading = new HashMap<>();
+  // Senses and pronunciations of all the entries
+  private final TextArena texts = new TextArena();
+  private final TagTable tagTable = new TagTable();
+  private boolean built = false;
+
+  public DictionaryIndexBuilder(AppConfig config) {
+    dictionaryCleanupRe = getCleanupPattern(config);
+    filterFalsePositiveRate = config.getDictionaryFilterFalsePositiveRate();
+  }
+
+  /**
+   * Return the dictionaryCleanupRegexp config option compiled, or null if there is none.
+   */
+  static Pattern getCleanupPattern(AppConfig config) {
+    String dictionaryCleanupRegexp = config.getDictionaryCleanupRegexp();
+    return dictionaryCleanupRegexp != null ? Pattern.compile(dictionaryCleanupRegexp) : null;
+  }
+
+  /**
+   * Add a dictionary entry.
+   */
+  public void addEntry(List<String> lemmas, List<String> senses, List<String> pronunciations, Set<String> tags) {
+    if (built) {
+      throw new IllegalStateException("Cannot add entries to a dictionary index that was already built");
+    }
+    DictionaryEntry dictEntry = new DictionaryEntry(lemmas, texts.addAll(cleanupSenses(senses, dictionaryCleanupRe)),
+        pronunciations != null ? texts.addAll(pronunciations) : null, tags, tagTable);
+
+    // Index entries by lemma
+    for (String lemma : lemmas) {
+      entriesByLemma.computeIfAbsent(lemma, k -> new ArrayList<>(1)).add(dictEntry);
+    }
+    if (pronunciations != null) {
+      for (String pronunciation : pronunciations) {
+        String reading = Readings.normalize(pronunciation);
+        if (reading != null) {
+          List<DictionaryEntry> readingEntries = entriesByReading.computeIfAbsent(reading, k -> new ArrayList<>(1));
+          // Two pronunciations of an entry can have the same reading(e.g. in hiragana and katakana)
+          if (readingEntries.isEmpty() || readingEntries.get(readingEntries.size() - 1) != dictEntry) {
+            readingEntries.add(dictEntry);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Cleanup dictionary definitions according to the dictionaryCleanupRegexp config option
+   * and apply default cleanup regexps.
+   */
+  static List<String> cleanupSenses(List<String> senses, Pattern dictionaryCleanupRe) {
+    return senses.stream()
+        .map(s -> {
+          for (Pattern re : DEFAULT_CLEANUP_RE) {
+            s = re.matcher(s).replaceAll("");
+          }
+          if (dictionaryCleanupRe != null) {
+            s = dictionaryCleanupRe.matcher(s).replaceAll("");
+          }
+          return s;
+        })
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Freeze the entries into an immutable index. The builder cannot be used anymore afterwards.
+   */
+  public DictionaryIndex build() {
+    if (built) {
+      throw new IllegalStateException("Dictionary index was already built");
+    }
+    built = true;
+    texts.freeze();
+    DictionaryIndex index = new DictionaryIndexHeap(entriesByLemma, entriesByReading, tagTable, filterFalsePositiveRate);
+    entriesByLemma.clear();
+    entriesByReading.clear();
+    return index;
+  }
+}
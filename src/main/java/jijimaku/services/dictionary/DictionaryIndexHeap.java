@@ -0,0 +1,181 @@
+package jijimaku.services.dictionary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+
+/**
+ * In-memory dictionary index, frozen from a DictionaryIndexBuilder.
+ * Lemmas are stored in an open addressing hash table(linear probing) made of two plain arrays:
+ * lookups do not allocate and touch far less memory than a HashMap of linked nodes.
+ * Lemmas are also stored in a LemmaTrie pointing to the same table slots, to walk them prefix by prefix.
+ * The kana readings of the entries are indexed the same way, in a second index without readings.
+ * A LemmaFilter of the lemma prefixes rejects most of the lookups of text that is not a lemma before they reach the table or the trie.
+ * All fields are final and never modified after construction so the index is safely published to any thread.
+ */
+public class DictionaryIndexHeap implements DictionaryIndex {
+
+  // Keep the table at most half full so that probe sequences stay short
+  private static final int LOAD_FACTOR_INVERSE = 2;
+
+  private final String[] keys;
+  private final List<DictionaryEntry>[] values;
+  private final int mask;
+  private final int size;
+  private final LemmaTrie trie;
+  // Null if the filter is disabled
+  private final LemmaFilter filter;
+  private final TagTable tagTable;
+  // Index of the entries by reading, null if there is no reading
+  private final DictionaryIndexHeap readings;
+
+  /**
+   * Build the index.
+   * @param filterFalsePositiveRate false positive rate of the lemma filter, 0 to have no filter
+   */
+  DictionaryIndexHeap(Map<String, List<DictionaryEntry>> entriesByLemma, Map<String, List<DictionaryEntry>> entriesByReading,
+                      TagTable tagTable, double filterFalsePositiveRate) {
+    this(entriesByLemma, tagTable, filterFalsePositiveRate,
+        entriesByReading.isEmpty() ? null : new DictionaryIndexHeap(entriesByReading, tagTable, 0, null));
+  }
+
+  private DictionaryIndexHeap(Map<String, List<DictionaryEntry>> entriesByLemma, TagTable tagTable, double filterFalsePositiveRate,
+                              DictionaryIndexHeap readings) {
+    int capacity = Integer.highestOneBit(Math.max(1, entriesByLemma.size() * LOAD_FACTOR_INVERSE - 1)) << 1;
+    keys = new String[capacity];
+    @SuppressWarnings("unchecked")
+    List<DictionaryEntry>[] slotValues = (List<DictionaryEntry>[]) new List<?>[capacity];
+    values = slotValues;
+    mask = capacity - 1;
+    size = entriesByLemma.size();
+    this.tagTable = tagTable;
+    this.readings = readings;
+
+    for (Map.Entry<String, List<DictionaryEntry>> lemmaEntries : entriesByLemma.entrySet()) {
+      int slot = slotOf(lemmaEntries.getKey());
+      while (keys[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = lemmaEntries.getKey();
+      values[slot] = Collections.unmodifiableList(new ArrayList<>(lemmaEntries.getValue()));
+    }
+
+    String[] lemmas = new String[size];
+    int[] lemmaSlots = new int[size];
+    int nbLemmas = 0;
+    for (int slot = 0; slot < capacity; slot++) {
+      if (keys[slot] != null) {
+        lemmas[nbLemmas] = keys[slot];
+        lemmaSlots[nbLemmas] = slot;
+        nbLemmas++;
+      }
+    }
+    trie = new LemmaTrie(lemmas, lemmaSlots);
+
+    if (filterFalsePositiveRate > 0) {
+      List<String> sortedLemmas = Arrays.asList(lemmas);
+      Collections.sort(sortedLemmas);
+      filter = LemmaFilter.build(sortedLemmas, filterFalsePositiveRate);
+    } else {
+      filter = null;
+    }
+  }
+
+  /**
+   * Spread the String hash so that the low bits used for the table slot depend on all of its bits.
+   */
+  private int slotOf(String lemma) {
+    int hash = lemma.hashCode();
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  @Override
+  public List<DictionaryEntry> search(String lemma) {
+    if (filter != null && !filter.mightStartWith(lemma)) {
+      return Collections.emptyList();
+    }
+    int slot = slotOf(lemma);
+    String key;
+    while ((key = keys[slot]) != null) {
+      if (key.equals(lemma)) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return Collections.emptyList();
+  }
+
+  @Override
+  public LemmaCursor cursor() {
+    return filter != null ? filter.filteringCursor(cursorAt(LemmaTrie.ROOT)) : cursorAt(LemmaTrie.ROOT);
+  }
+
+  private LemmaCursor cursorAt(int startNode) {
+    return new LemmaCursor() {
+      private int node = startNode;
+
+      @Override
+      public boolean advance(CharSequence fragment) {
+        if (node != LemmaTrie.NONE) {
+          node = trie.walk(node, fragment);
+        }
+        return node != LemmaTrie.NONE;
+      }
+
+      @Override
+      public boolean hasEntries() {
+        return node != LemmaTrie.NONE && trie.value(node) != LemmaTrie.NONE;
+      }
+
+      @Override
+      public List<DictionaryEntry> entries() {
+        return hasEntries() ? values[trie.value(node)] : Collections.emptyList();
+      }
+
+      @Override
+      public LemmaCursor copy() {
+        return cursorAt(node);
+      }
+    };
+  }
+
+  @Override
+  public LemmaCursor readingCursor() {
+    return readings == null ? LemmaCursor.NONE : Readings.normalizingCursor(readings.cursor());
+  }
+
+  @Override
+  public LemmaFilter getFilter() {
+    return filter;
+  }
+
+  @Override
+  public TagTable getTagTable() {
+    return tagTable;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, List<DictionaryEntry>> action) {
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (keys[slot] != null) {
+        action.accept(keys[slot], values[slot]);
+      }
+    }
+  }
+
+  @Override
+  public void forEachReading(BiConsumer<String, List<DictionaryEntry>> action) {
+    if (readings != null) {
+      readings.forEach(action);
+    }
+  }
+}
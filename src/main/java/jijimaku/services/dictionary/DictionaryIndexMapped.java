@@ -0,0 +1,428 @@
+package jijimaku.services.dictionary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+
+/**
+ * Dictionary index read directly from a memory-mapped file section.
+ * Nothing is decoded when the index is opened: a search does a binary search over the sorted lemma table
+ * and decodes only the matching entries, so only the pages actually hit by lookups are read from disk.
+ * The LemmaFilter of the source index is saved with it, and checked in place before the lemma table.
+ *
+ * <p>Section layout(big endian, offsets are relative to the section start):
+ * <pre>
+ *   int lemmaCount, int entryCount, int tags record offset, int readingCount, int filter record offset(0 if none)
+ *   int[lemmaCount] lemma record offsets, sorted by lemma UTF-8 bytes
+ *   int[entryCount] entry record offsets
+ *   int[readingCount] reading record offsets, sorted by reading UTF-8 bytes
+ *   lemma record: str lemma, int n, int[n] entry ids
+ *   reading record: str normalized reading, int n, int[n] entry ids
+ *   entry record: strList lemmas, strList senses, strList pronunciations, int n(-1 if no tags), long[n] tag bits,
+ *                 int frequency(-1 if none)
+ *   tags record: strList tag names, the tag bits are indexes in this list
+ *   filter record: see LemmaFilter.write
+ *   str: int byteLength, UTF-8 bytes / strList: int count(-1 if null), str[count]
+ * </pre>
+ * Offsets are ints, so a section is limited to 2 GB: write refuses bigger indexes and the dictionary is then not compiled.
+ */
+public class DictionaryIndexMapped implements DictionaryIndex {
+
+  private static final int NONE = -1;
+  private static final int TAGS_OFFSET_POSITION = 8;
+  private static final int READING_COUNT_POSITION = 12;
+  private static final int FILTER_OFFSET_POSITION = 16;
+  private static final int LEMMA_TABLE_OFFSET = 20;
+
+  private final ByteBuffer buffer;
+  private final int lemmaCount;
+  private final int entryTableOffset;
+  private final int readingCount;
+  private final int readingTableOffset;
+  // Null if the source index had no filter
+  private final LemmaFilter filter;
+  private final TagTable tagTable = new TagTable();
+
+  /**
+   * Open an index section.
+   * The buffer is only accessed through absolute reads or private duplicates so it can be shared by several threads.
+   */
+  DictionaryIndexMapped(ByteBuffer buffer) {
+    this.buffer = buffer;
+    lemmaCount = buffer.getInt(0);
+    entryTableOffset = LEMMA_TABLE_OFFSET + 4 * lemmaCount;
+    readingCount = buffer.getInt(READING_COUNT_POSITION);
+    readingTableOffset = entryTableOffset + 4 * buffer.getInt(4);
+    int filterOffset = buffer.getInt(FILTER_OFFSET_POSITION);
+    filter = filterOffset != 0 ? LemmaFilter.read(buffer, filterOffset) : null;
+    ByteBuffer reader = buffer.duplicate();
+    reader.position(buffer.getInt(TAGS_OFFSET_POSITION));
+    for (String tag : readStringList(reader)) {
+      tagTable.intern(tag);
+    }
+  }
+
+  @Override
+  public List<DictionaryEntry> search(String lemma) {
+    if (filter != null && !filter.mightStartWith(lemma)) {
+      return Collections.emptyList();
+    }
+    byte[] key = lemma.getBytes(StandardCharsets.UTF_8);
+    int low = 0;
+    int high = lemmaCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int recordOffset = buffer.getInt(LEMMA_TABLE_OFFSET + 4 * mid);
+      int cmp = compareKey(recordOffset, key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return readLemmaEntries(recordOffset, buffer.duplicate());
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  @Override
+  public LemmaCursor cursor() {
+    LemmaCursor cursor = tableCursor(LEMMA_TABLE_OFFSET, lemmaCount);
+    return filter != null ? filter.filteringCursor(cursor) : cursor;
+  }
+
+  @Override
+  public LemmaCursor readingCursor() {
+    return readingCount == 0 ? LemmaCursor.NONE : Readings.normalizingCursor(tableCursor(readingTableOffset, readingCount));
+  }
+
+  /**
+   * Keys starting with a prefix are contiguous in a sorted table of lemma or reading records,
+   * the cursor narrows down this range with a binary search each time the prefix grows.
+   */
+  private LemmaCursor tableCursor(int tableOffset, int count) {
+    return tableCursor(tableOffset, new byte[32], 0, 0, count);
+  }
+
+  private LemmaCursor tableCursor(int tableOffset, byte[] startPrefix, int startPrefixLength, int startLow, int startHigh) {
+    return new LemmaCursor() {
+      private byte[] prefix = startPrefix;
+      private int prefixLength = startPrefixLength;
+      // Range [low, high) of the keys starting with the prefix
+      private int low = startLow;
+      private int high = startHigh;
+
+      @Override
+      public boolean advance(CharSequence fragment) {
+        if (low >= high) {
+          return false;
+        }
+        byte[] bytes = fragment.toString().getBytes(StandardCharsets.UTF_8);
+        if (prefixLength + bytes.length > prefix.length) {
+          prefix = Arrays.copyOf(prefix, Math.max(2 * prefix.length, prefixLength + bytes.length));
+        }
+        System.arraycopy(bytes, 0, prefix, prefixLength, bytes.length);
+        prefixLength += bytes.length;
+
+        low = firstLemma(low, high, false);
+        high = firstLemma(low, high, true);
+        return low < high;
+      }
+
+      /**
+       * Binary search the first lemma in [from, to) that is greater or equal to the prefix,
+       * or greater than all the lemmas starting with the prefix if afterPrefix is true.
+       */
+      private int firstLemma(int from, int to, boolean afterPrefix) {
+        while (from < to) {
+          int mid = (from + to) >>> 1;
+          int cmp = comparePrefix(buffer.getInt(tableOffset + 4 * mid));
+          if (cmp < 0 || (afterPrefix && cmp == 0)) {
+            from = mid + 1;
+          } else {
+            to = mid;
+          }
+        }
+        return from;
+      }
+
+      /**
+       * Compare the lemma stored at recordOffset with the prefix, return 0 if the lemma starts with the prefix.
+       */
+      private int comparePrefix(int recordOffset) {
+        int length = buffer.getInt(recordOffset);
+        int common = Math.min(length, prefixLength);
+        for (int i = 0; i < common; i++) {
+          int cmp = Integer.compare(buffer.get(recordOffset + 4 + i) & 0xFF, prefix[i] & 0xFF);
+          if (cmp != 0) {
+            return cmp;
+          }
+        }
+        return length < prefixLength ? -1 : 0;
+      }
+
+      @Override
+      public boolean hasEntries() {
+        // The lemma equal to the prefix is the shortest, hence the first of the range
+        return low < high && buffer.getInt(buffer.getInt(tableOffset + 4 * low)) == prefixLength;
+      }
+
+      @Override
+      public List<DictionaryEntry> entries() {
+        if (!hasEntries()) {
+          return Collections.emptyList();
+        }
+        return readLemmaEntries(buffer.getInt(tableOffset + 4 * low), buffer.duplicate());
+      }
+
+      @Override
+      public LemmaCursor copy() {
+        return tableCursor(tableOffset, prefix.clone(), prefixLength, low, high);
+      }
+    };
+  }
+
+  @Override
+  public LemmaFilter getFilter() {
+    return filter;
+  }
+
+  @Override
+  public TagTable getTagTable() {
+    return tagTable;
+  }
+
+  @Override
+  public int size() {
+    return lemmaCount;
+  }
+
+  /**
+   * Decode every lemma and its entries, in lemma order.
+   */
+  @Override
+  public void forEach(BiConsumer<String, List<DictionaryEntry>> action) {
+    forEachRecord(LEMMA_TABLE_OFFSET, lemmaCount, action);
+  }
+
+  @Override
+  public void forEachReading(BiConsumer<String, List<DictionaryEntry>> action) {
+    forEachRecord(readingTableOffset, readingCount, action);
+  }
+
+  private void forEachRecord(int tableOffset, int count, BiConsumer<String, List<DictionaryEntry>> action) {
+    ByteBuffer reader = buffer.duplicate();
+    for (int i = 0; i < count; i++) {
+      int recordOffset = buffer.getInt(tableOffset + 4 * i);
+      reader.position(recordOffset);
+      String key = readString(reader);
+      action.accept(key, readLemmaEntries(recordOffset, reader));
+    }
+  }
+
+  /**
+   * Compare the lemma stored at recordOffset with a key, both as unsigned UTF-8 bytes.
+   */
+  private int compareKey(int recordOffset, byte[] key) {
+    int length = buffer.getInt(recordOffset);
+    int start = recordOffset + 4;
+    int common = Math.min(length, key.length);
+    for (int i = 0; i < common; i++) {
+      int cmp = Integer.compare(buffer.get(start + i) & 0xFF, key[i] & 0xFF);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return Integer.compare(length, key.length);
+  }
+
+  private List<DictionaryEntry> readLemmaEntries(int recordOffset, ByteBuffer reader) {
+    int entriesOffset = recordOffset + 4 + buffer.getInt(recordOffset);
+    int nbEntries = buffer.getInt(entriesOffset);
+    List<DictionaryEntry> entries = new ArrayList<>(nbEntries);
+    for (int i = 0; i < nbEntries; i++) {
+      int entryId = buffer.getInt(entriesOffset + 4 + 4 * i);
+      reader.position(buffer.getInt(entryTableOffset + 4 * entryId));
+      entries.add(readEntry(reader));
+    }
+    return Collections.unmodifiableList(entries);
+  }
+
+  private DictionaryEntry readEntry(ByteBuffer reader) {
+    List<String> lemmas = readStringList(reader);
+    List<String> senses = readStringList(reader);
+    List<String> pronunciations = readStringList(reader);
+    int tagWords = reader.getInt();
+    long[] tagBits = null;
+    if (tagWords != NONE) {
+      tagBits = new long[tagWords];
+      for (int i = 0; i < tagWords; i++) {
+        tagBits[i] = reader.getLong();
+      }
+    }
+    int frequency = reader.getInt();
+    return new DictionaryEntry(lemmas, senses, pronunciations, tagTable, tagBits, frequency == NONE ? null : frequency);
+  }
+
+  private static String readString(ByteBuffer reader) {
+    byte[] bytes = new byte[reader.getInt()];
+    reader.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static List<String> readStringList(ByteBuffer reader) {
+    int count = reader.getInt();
+    if (count == NONE) {
+      return null;
+    }
+    List<String> strings = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      strings.add(readString(reader));
+    }
+    return strings;
+  }
+
+  /**
+   * Write an index section at the current position of a file channel.
+   */
+  static void write(DictionaryIndex index, FileChannel channel) throws IOException {
+    // Collect lemmas and readings sorted by UTF-8 bytes(the order used by the binary search), and number the distinct entries
+    Map<DictionaryEntry, Integer> entryIds = new IdentityHashMap<>();
+    List<DictionaryEntry> entries = new ArrayList<>();
+    List<byte[]> lemmas = new ArrayList<>(index.size());
+    List<List<DictionaryEntry>> lemmasEntries = new ArrayList<>(index.size());
+    index.forEach((lemma, lemmaEntries) -> collectRecord(lemma, lemmaEntries, lemmas, lemmasEntries, entryIds, entries));
+    List<byte[]> readings = new ArrayList<>();
+    List<List<DictionaryEntry>> readingsEntries = new ArrayList<>();
+    index.forEachReading((reading, readingEntries) -> collectRecord(reading, readingEntries, readings, readingsEntries, entryIds, entries));
+
+    // Tables are written last, once the record offsets are known
+    final long sectionStart = channel.position();
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    out.writeInt(lemmas.size());
+    out.writeInt(entries.size());
+    out.writeInt(0);
+    out.writeInt(readings.size());
+    out.writeInt(0);
+    out.write(new byte[4 * (lemmas.size() + entries.size() + readings.size())]);
+
+    ByteBuffer tables = ByteBuffer.allocate(4 * (lemmas.size() + entries.size() + readings.size()));
+    ByteBuffer readingTable = ByteBuffer.allocate(4 * readings.size());
+    writeRecords(out, lemmas, lemmasEntries, entryIds, tables);
+    writeRecords(out, readings, readingsEntries, entryIds, readingTable);
+    // The source index may be in another tag table, renumber the tags
+    TagTable tagTable = new TagTable();
+    for (DictionaryEntry entry : entries) {
+      tables.putInt(out.size());
+      writeStringList(out, entry.getLemmas());
+      writeStringList(out, entry.getSenses());
+      writeStringList(out, entry.getPronunciations());
+      long[] tagBits = tagTable.internAll(entry.getTags());
+      out.writeInt(tagBits == null ? NONE : tagBits.length);
+      if (tagBits != null) {
+        for (long bits : tagBits) {
+          out.writeLong(bits);
+        }
+      }
+      out.writeInt(entry.getFrequency() == null ? NONE : entry.getFrequency());
+    }
+    tables.put(readingTable.array());
+    final int tagsOffset = out.size();
+    List<String> tagNames = new ArrayList<>(tagTable.size());
+    for (int id = 0; id < tagTable.size(); id++) {
+      tagNames.add(tagTable.name(id));
+    }
+    writeStringList(out, tagNames);
+    final int filterOffset = index.getFilter() != null ? out.size() : 0;
+    if (index.getFilter() != null) {
+      index.getFilter().write(out);
+    }
+    out.flush();
+    // DataOutputStream.size() stops at Integer.MAX_VALUE, past it the offsets written are wrong
+    if (out.size() == Integer.MAX_VALUE) {
+      throw new IOException("The dictionary index is larger than 2 GB and cannot be compiled");
+    }
+
+    channel.write(ByteBuffer.allocate(4).putInt(0, tagsOffset), sectionStart + TAGS_OFFSET_POSITION);
+    channel.write(ByteBuffer.allocate(4).putInt(0, filterOffset), sectionStart + FILTER_OFFSET_POSITION);
+    tables.flip();
+    long tablesPosition = sectionStart + LEMMA_TABLE_OFFSET;
+    while (tables.hasRemaining()) {
+      tablesPosition += channel.write(tables, tablesPosition);
+    }
+  }
+
+  private static void collectRecord(String key, List<DictionaryEntry> keyEntries, List<byte[]> keys, List<List<DictionaryEntry>> keysEntries,
+                                    Map<DictionaryEntry, Integer> entryIds, List<DictionaryEntry> entries) {
+    keys.add(key.getBytes(StandardCharsets.UTF_8));
+    keysEntries.add(keyEntries);
+    for (DictionaryEntry entry : keyEntries) {
+      if (!entryIds.containsKey(entry)) {
+        entryIds.put(entry, entries.size());
+        entries.add(entry);
+      }
+    }
+  }
+
+  /**
+   * Write the lemma or reading records in key order, and their offsets in the table.
+   */
+  private static void writeRecords(DataOutputStream out, List<byte[]> keys, List<List<DictionaryEntry>> keysEntries,
+                                   Map<DictionaryEntry, Integer> entryIds, ByteBuffer table) throws IOException {
+    List<Integer> keyOrder = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      keyOrder.add(i);
+    }
+    keyOrder.sort(Comparator.comparing(keys::get, DictionaryIndexMapped::compareBytes));
+    for (int keyIdx : keyOrder) {
+      table.putInt(out.size());
+      writeBytes(out, keys.get(keyIdx));
+      List<DictionaryEntry> keyEntries = keysEntries.get(keyIdx);
+      out.writeInt(keyEntries.size());
+      for (DictionaryEntry entry : keyEntries) {
+        out.writeInt(entryIds.get(entry));
+      }
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static void writeStringList(DataOutputStream out, List<String> strings) throws IOException {
+    if (strings == null) {
+      out.writeInt(NONE);
+      return;
+    }
+    out.writeInt(strings.size());
+    for (String s : strings) {
+      writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static int compareBytes(byte[] b1, byte[] b2) {
+    int common = Math.min(b1.length, b2.length);
+    for (int i = 0; i < common; i++) {
+      int cmp = Integer.compare(b1[i] & 0xFF, b2[i] & 0xFF);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return Integer.compare(b1.length, b2.length);
+  }
+
+}
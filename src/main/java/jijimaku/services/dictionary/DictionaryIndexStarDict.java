@@ -0,0 +1,507 @@
+package jijimaku.services.dictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * Dictionary index read directly from the memory-mapped files of a StarDict dictionary.
+ * The .idx file is a list of words sorted in StarDict order(ASCII case-insensitive, then byte order),
+ * each pointing to its data in the .dict file. Only the offset of one word out of PAGE_SIZE is kept in memory:
+ * a search does a binary search over these pages then scans one page, and decodes only the matching entries.
+ *
+ * <p>.idx record: word UTF-8 bytes, NUL, int(or long if idxoffsetbits=64) data offset, int data size(big endian).
+ * The .dict data of a word is a sequence of typed fields, see http://www.huzheng.org/stardict/StarDictFileFormat
+ * A .dict.dz file is read by chunks thanks to the random access table of the dictzip format.
+ *
+ * <p>Each file is mapped in a single buffer, so the .idx and .dict(or .dict.dz) files are limited to 2 GB: bigger files
+ * are refused when the dictionary is opened. 64 bits offsets are supported, but only a .dict.dz file can hold data past 2 GB.
+ */
+public class DictionaryIndexStarDict implements DictionaryIndex {
+
+  private static final int PAGE_SIZE = 32;
+  private static final int GZIP_FEXTRA = 4;
+  private static final int GZIP_FNAME = 8;
+  private static final int GZIP_FCOMMENT = 16;
+  private static final int GZIP_FHCRC = 2;
+  private static final Pattern LINE_BREAK_TAG_RE = Pattern.compile("(?i)<br\\s*/?>|</(p|div|li)>");
+  private static final Pattern TAG_RE = Pattern.compile("<[^>]*>");
+
+  private final ByteBuffer idx;
+  private final ByteBuffer dict;
+  private final int offsetSize;
+  private final String sameTypeSequence;
+  private final Pattern dictionaryCleanupRe;
+  private final TagTable tagTable = new TagTable();
+  // Offset of the first word of each page of PAGE_SIZE words
+  private final int[] pageOffsets;
+  private final int size;
+  // Dictzip random access table: uncompressed chunk length(0 if the .dict is not compressed), chunk offsets
+  private final int chunkLength;
+  private final int[] chunkOffsets;
+
+  /**
+   * Open the index and data files of a StarDict dictionary.
+   * @param offsets64 true if the data offsets in the .idx file are 64 bits(idxoffsetbits=64 in the .ifo)
+   * @param sameTypeSequence the types of the data fields if they are the same for all words, or null
+   */
+  DictionaryIndexStarDict(File idxFile, File dictFile, boolean offsets64, String sameTypeSequence, Pattern dictionaryCleanupRe)
+      throws IOException {
+    idx = map(idxFile);
+    dict = map(dictFile);
+    offsetSize = offsets64 ? 8 : 4;
+    this.sameTypeSequence = sameTypeSequence != null && !sameTypeSequence.isEmpty() ? sameTypeSequence : null;
+    this.dictionaryCleanupRe = dictionaryCleanupRe;
+
+    int[] pages = new int[16];
+    int nbWords = 0;
+    int nbLemmas = 0;
+    int previous = -1;
+    for (int pos = 0; pos < idx.limit(); pos = nextWord(pos)) {
+      if (nbWords % PAGE_SIZE == 0) {
+        if (nbWords / PAGE_SIZE == pages.length) {
+          pages = Arrays.copyOf(pages, 2 * pages.length);
+        }
+        pages[nbWords / PAGE_SIZE] = pos;
+      }
+      // Several entries can have the same word, they are next to each other
+      if (previous == -1 || !sameWord(previous, pos)) {
+        nbLemmas++;
+      }
+      previous = pos;
+      nbWords++;
+    }
+    pageOffsets = Arrays.copyOf(pages, (nbWords + PAGE_SIZE - 1) / PAGE_SIZE);
+    size = nbLemmas;
+
+    if (dictFile.getName().toLowerCase().endsWith(".dz")) {
+      int[] chunkTable = readDictzipHeader();
+      chunkLength = chunkTable[0];
+      chunkOffsets = Arrays.copyOfRange(chunkTable, 1, chunkTable.length);
+    } else {
+      chunkLength = 0;
+      chunkOffsets = null;
+    }
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    // The mapping stays valid after the channel is closed
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(file.getName() + " is larger than 2 GB, which is not supported");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  /**
+   * Read the random access table in the gzip header of a dictzip file.
+   * @return the uncompressed chunk length followed by the offset of each chunk and the end offset of the last one
+   */
+  private int[] readDictzipHeader() throws IOException {
+    ByteBuffer header = dict.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int flags = header.get(3);
+    if ((header.getShort(0) & 0xFFFF) != 0x8B1F || (flags & GZIP_FEXTRA) == 0) {
+      throw new IOException("Not a dictzip file, it can be decompressed with gunzip");
+    }
+    int extraEnd = 12 + (header.getShort(10) & 0xFFFF);
+    int[] chunkTable = null;
+    for (int pos = 12; pos + 4 <= extraEnd; pos += 4 + (header.getShort(pos + 2) & 0xFFFF)) {
+      if (header.get(pos) == 'R' && header.get(pos + 1) == 'A') {
+        int nbChunks = header.getShort(pos + 8) & 0xFFFF;
+        chunkTable = new int[nbChunks + 2];
+        chunkTable[0] = header.getShort(pos + 6) & 0xFFFF;
+        for (int c = 0; c < nbChunks; c++) {
+          chunkTable[c + 2] = chunkTable[c + 1] + (header.getShort(pos + 10 + 2 * c) & 0xFFFF);
+        }
+      }
+    }
+    if (chunkTable == null) {
+      throw new IOException("Not a dictzip file, it can be decompressed with gunzip");
+    }
+
+    // Chunk offsets are relative to the start of the compressed data, after the optional header fields
+    int dataStart = extraEnd;
+    if ((flags & GZIP_FNAME) != 0) {
+      dataStart = endOfString(header, dataStart) + 1;
+    }
+    if ((flags & GZIP_FCOMMENT) != 0) {
+      dataStart = endOfString(header, dataStart) + 1;
+    }
+    if ((flags & GZIP_FHCRC) != 0) {
+      dataStart += 2;
+    }
+    for (int c = 1; c < chunkTable.length; c++) {
+      chunkTable[c] += dataStart;
+    }
+    return chunkTable;
+  }
+
+  /**
+   * Return the position in the .idx file of the first word equal to a lemma, or the position of the next word.
+   */
+  private int findWord(byte[] key) {
+    return lowerBound(p -> compareWord(p, key) < 0);
+  }
+
+  @Override
+  public List<DictionaryEntry> search(String lemma) {
+    byte[] key = lemma.getBytes(StandardCharsets.UTF_8);
+    List<DictionaryEntry> entries = null;
+    for (int pos = findWord(key); pos < idx.limit() && compareWord(pos, key) == 0; pos = nextWord(pos)) {
+      if (entries == null) {
+        entries = new ArrayList<>(1);
+      }
+      entries.add(readEntry(pos));
+    }
+    return entries == null ? Collections.emptyList() : Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * Words starting with a prefix, ignoring ASCII case, are contiguous in the .idx file:
+   * the cursor checks that this range is not empty each time the prefix grows.
+   * Because of the case-insensitive order, advance can return true for a prefix that only matches words with
+   * another case, entries then returns an empty list.
+   */
+  @Override
+  public LemmaCursor cursor() {
+    return cursorAt("");
+  }
+
+  private LemmaCursor cursorAt(CharSequence startPrefix) {
+    return new LemmaCursor() {
+      private final StringBuilder prefix = new StringBuilder(startPrefix);
+
+      @Override
+      public boolean advance(CharSequence fragment) {
+        prefix.append(fragment);
+        byte[] key = prefix.toString().getBytes(StandardCharsets.UTF_8);
+        int pos = lowerBound(p -> compareIgnoreCase(p, key, true) < 0);
+        return pos < idx.limit() && compareIgnoreCase(pos, key, true) == 0;
+      }
+
+      @Override
+      public boolean hasEntries() {
+        byte[] key = prefix.toString().getBytes(StandardCharsets.UTF_8);
+        int pos = findWord(key);
+        return pos < idx.limit() && compareWord(pos, key) == 0;
+      }
+
+      @Override
+      public List<DictionaryEntry> entries() {
+        return search(prefix.toString());
+      }
+
+      @Override
+      public LemmaCursor copy() {
+        return cursorAt(prefix);
+      }
+    };
+  }
+
+  /**
+   * The .idx file is only sorted by word, the pronunciations are not indexed.
+   */
+  @Override
+  public LemmaCursor readingCursor() {
+    return LemmaCursor.NONE;
+  }
+
+  @Override
+  public TagTable getTagTable() {
+    return tagTable;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Decode every word and its entries, in .idx order.
+   */
+  @Override
+  public void forEach(BiConsumer<String, List<DictionaryEntry>> action) {
+    int pos = 0;
+    while (pos < idx.limit()) {
+      int wordStart = pos;
+      List<DictionaryEntry> entries = new ArrayList<>(1);
+      do {
+        entries.add(readEntry(pos));
+        pos = nextWord(pos);
+      } while (pos < idx.limit() && sameWord(wordStart, pos));
+      action.accept(readWord(wordStart), Collections.unmodifiableList(entries));
+    }
+  }
+
+  @Override
+  public void forEachReading(BiConsumer<String, List<DictionaryEntry>> action) {
+  }
+
+  /**
+   * Return the longest words of the index(used to detect the dictionary language).
+   */
+  List<String> longestWords(int count) {
+    // Min-heap of (word length, word offset) keeping the longest words seen so far
+    PriorityQueue<Long> longest = new PriorityQueue<>(count + 1);
+    for (int pos = 0; pos < idx.limit(); pos = nextWord(pos)) {
+      longest.add((long) (endOfString(idx, pos) - pos) << 32 | pos);
+      if (longest.size() > count) {
+        longest.poll();
+      }
+    }
+    List<String> words = new ArrayList<>(longest.size());
+    for (long word : longest) {
+      words.add(readWord((int) word));
+    }
+    return words;
+  }
+
+  /**
+   * Return the offset of the first word for which before is false, before must be true for a range of first words.
+   */
+  private int lowerBound(IntPredicate before) {
+    // Last page whose first word is before
+    int low = 0;
+    int high = pageOffsets.length - 1;
+    int page = 0;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (before.test(pageOffsets[mid])) {
+        page = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    int pos = pageOffsets.length > 0 ? pageOffsets[page] : 0;
+    while (pos < idx.limit() && before.test(pos)) {
+      pos = nextWord(pos);
+    }
+    return pos;
+  }
+
+  /**
+   * Compare the word stored at pos with a key in StarDict order: ignoring ASCII case first, then as bytes.
+   */
+  private int compareWord(int pos, byte[] key) {
+    int cmp = compareIgnoreCase(pos, key, false);
+    if (cmp != 0) {
+      return cmp;
+    }
+    for (int i = 0; i < key.length; i++) {
+      cmp = Integer.compare(idx.get(pos + i) & 0xFF, key[i] & 0xFF);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Compare the word stored at pos with a key ignoring ASCII case, as unsigned bytes.
+   * If prefix is true, return 0 when the word starts with the key.
+   */
+  private int compareIgnoreCase(int pos, byte[] key, boolean prefix) {
+    for (int i = 0; ; i++) {
+      int b = idx.get(pos + i) & 0xFF;
+      if (i == key.length) {
+        return prefix || b == 0 ? 0 : 1;
+      }
+      int cmp = Integer.compare(toLowerAscii(b), toLowerAscii(key[i] & 0xFF));
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+  }
+
+  private static int toLowerAscii(int b) {
+    return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+  }
+
+  private boolean sameWord(int pos1, int pos2) {
+    for (int i = 0; ; i++) {
+      byte b = idx.get(pos1 + i);
+      if (b != idx.get(pos2 + i)) {
+        return false;
+      }
+      if (b == 0) {
+        return true;
+      }
+    }
+  }
+
+  private int nextWord(int pos) {
+    return endOfString(idx, pos) + 1 + offsetSize + 4;
+  }
+
+  private static int endOfString(ByteBuffer buffer, int pos) {
+    while (buffer.get(pos) != 0) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private String readWord(int pos) {
+    byte[] bytes = new byte[endOfString(idx, pos) - pos];
+    ByteBuffer reader = idx.duplicate();
+    reader.position(pos);
+    reader.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private DictionaryEntry readEntry(int pos) {
+    String word = readWord(pos);
+    int dataPos = endOfString(idx, pos) + 1;
+    long offset = offsetSize == 8 ? idx.getLong(dataPos) : idx.getInt(dataPos) & 0xFFFFFFFFL;
+    byte[] data = readData(offset, idx.getInt(dataPos + offsetSize));
+
+    List<String> senses = new ArrayList<>();
+    List<String> pronunciations = new ArrayList<>();
+    int field = 0;
+    int fieldStart = 0;
+    while (fieldStart < data.length && (sameTypeSequence == null || field < sameTypeSequence.length())) {
+      char type;
+      if (sameTypeSequence != null) {
+        type = sameTypeSequence.charAt(field);
+      } else {
+        type = (char) data[fieldStart++];
+      }
+      // With a sametypesequence the last field has no terminator nor size, it takes the rest of the data
+      boolean last = sameTypeSequence != null && field == sameTypeSequence.length() - 1;
+      int fieldEnd;
+      int next;
+      if (Character.isUpperCase(type)) {
+        // Binary field(sound, picture...) prefixed by its size, ignored
+        fieldEnd = last ? data.length : fieldStart + 4 + ByteBuffer.wrap(data, fieldStart, 4).getInt();
+        next = fieldEnd;
+      } else {
+        fieldEnd = fieldStart;
+        while (!last && fieldEnd < data.length && data[fieldEnd] != 0) {
+          fieldEnd++;
+        }
+        fieldEnd = last ? data.length : fieldEnd;
+        next = fieldEnd + 1;
+        addTextField(type, new String(data, fieldStart, fieldEnd - fieldStart, StandardCharsets.UTF_8), senses, pronunciations);
+      }
+      fieldStart = next;
+      field++;
+    }
+
+    return new DictionaryEntry(Collections.singletonList(word), DictionaryIndexBuilder.cleanupSenses(senses, dictionaryCleanupRe),
+        pronunciations.isEmpty() ? null : pronunciations, tagTable, null, null);
+  }
+
+  /**
+   * Add a text field of a word to its senses or pronunciations according to the field type.
+   */
+  private static void addTextField(char type, String text, List<String> senses, List<String> pronunciations) {
+    switch (type) {
+      case 't':  // English phonetic string
+      case 'y':  // Chinese YinBiao or Japanese KANA
+        pronunciations.add(text.trim());
+        break;
+      case 'g':  // Pango markup
+      case 'x':  // XDXF markup
+      case 'h':  // HTML
+        text = TAG_RE.matcher(LINE_BREAK_TAG_RE.matcher(text).replaceAll("\n")).replaceAll("")
+            .replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'")
+            .replace("&nbsp;", " ").replace("&amp;", "&");
+        addLines(text, senses);
+        break;
+      case 'm':  // Plain text
+      case 'l':  // Plain text in the locale encoding
+      case 'k':  // KingSoft PowerWord XML
+      case 'w':  // MediaWiki markup
+        addLines(text, senses);
+        break;
+      default:  // Resource file lists and unknown types
+        break;
+    }
+  }
+
+  /**
+   * One sense per non-empty line.
+   */
+  private static void addLines(String text, List<String> senses) {
+    for (String line : text.split("\n")) {
+      if (!line.trim().isEmpty()) {
+        senses.add(line.trim());
+      }
+    }
+  }
+
+  /**
+   * Read the data of a word from the .dict file, inflating the needed dictzip chunks if it is compressed.
+   */
+  private byte[] readData(long offset, int dataSize) {
+    byte[] bytes = new byte[dataSize];
+    if (chunkLength == 0) {
+      if (offset + dataSize > dict.limit()) {
+        throw new IllegalStateException("StarDict data is out of the .dict file");
+      }
+      ByteBuffer reader = dict.duplicate();
+      reader.position((int) offset);
+      reader.get(bytes);
+      return bytes;
+    }
+
+    Inflater inflater = new Inflater(true);
+    try {
+      byte[] chunk = new byte[chunkLength];
+      int copied = 0;
+      for (int c = (int) (offset / chunkLength); copied < dataSize; c++) {
+        int chunkSize = inflateChunk(inflater, c, chunk);
+        int from = copied == 0 ? (int) (offset % chunkLength) : 0;
+        int length = Math.min(chunkSize - from, dataSize - copied);
+        if (length <= 0) {
+          throw new IllegalStateException("StarDict data is out of the .dict.dz file");
+        }
+        System.arraycopy(chunk, from, bytes, copied, length);
+        copied += length;
+      }
+      return bytes;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Inflate a dictzip chunk, chunks are independent raw deflate streams.
+   */
+  private int inflateChunk(Inflater inflater, int c, byte[] chunk) {
+    if (c + 1 >= chunkOffsets.length) {
+      return 0;
+    }
+    byte[] compressed = new byte[chunkOffsets[c + 1] - chunkOffsets[c]];
+    ByteBuffer reader = dict.duplicate();
+    reader.position(chunkOffsets[c]);
+    reader.get(compressed);
+    inflater.reset();
+    inflater.setInput(compressed);
+    try {
+      int inflated = 0;
+      while (inflated < chunk.length && !inflater.finished() && !inflater.needsInput()) {
+        inflated += inflater.inflate(chunk, inflated, chunk.length - inflated);
+      }
+      return inflated;
+    } catch (DataFormatException exc) {
+      throw new IllegalStateException("Invalid compressed data in StarDict .dict.dz file", exc);
+    }
+  }
+}
@@ -2,16 +2,24 @@ package jijimaku.services.dictionary;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.resolver.Resolver;
 
 import jijimaku.AppConfig;
 import jijimaku.errors.UnexpectedCriticalError;
@@ -21,7 +29,7 @@ import jijimaku.utils.FileManager;
 
 
 /**
- * Simple YAML parsing to load jiji dictionary data into a java Hashmap.
+ * Load a jiji YAML dictionary into a dictionary index.
  */
 @SuppressWarnings("checkstyle")
 public class DictionaryJiji implements Dictionary {
@@ -47,6 +55,7 @@ public class DictionaryJiji implements Dictionary {
 
   private String title;
   private Language languageFrom;
+  private final DictionaryIndex index;
 
   @SuppressWarnings("unchecked")
   private void parseAboutThisDictionary(Object yamlObj) {
@@ -61,58 +70,110 @@ public class DictionaryJiji implements Dictionary {
     }
   }
 
-  @SuppressWarnings("unchecked")
-  public DictionaryJiji(File jijiDictFile, AppConfig config) {
-    try {
-      Yaml yaml = new Yaml();
-      String yamlStr = FileManager.fileAnyEncodingToString(jijiDictFile);
-      Map<String, Object> yamlMap = (Map<String, Object>) yaml.load(yamlStr);
+  /**
+   * Read a YAML value from the parser events: a String(or null), a List or a Map.
+   * Only one dictionary entry at a time is built this way, never the whole file.
+   */
+  private static Object readValue(Event event, Iterator<Event> events) {
+    if (event.is(Event.ID.Scalar)) {
+      ScalarEvent scalar = (ScalarEvent) event;
+      boolean isNull = scalar.getImplicit().canOmitTagInPlainScalar() && Resolver.NULL.matcher(scalar.getValue()).matches();
+      return isNull ? null : scalar.getValue();
+    }
+    if (event.is(Event.ID.SequenceStart)) {
+      List<Object> list = new ArrayList<>();
+      for (Event item = events.next(); !item.is(Event.ID.SequenceEnd); item = events.next()) {
+        list.add(readValue(item, events));
+      }
+      return list;
+    }
+    if (event.is(Event.ID.MappingStart)) {
+      Map<String, Object> map = new HashMap<>();
+      for (Event key = events.next(); !key.is(Event.ID.MappingEnd); key = events.next()) {
+        map.put(String.valueOf(readValue(key, events)), readValue(events.next(), events));
+      }
+      return map;
+    }
+    throw new YAMLException("Unsupported YAML element " + event);
+  }
 
-      this.parseAboutThisDictionary(yamlMap.get(DICT_INFO_KEY));
-      LOGGER.info("Using {} dictionary '{}'", languageFrom, title);
+  @SuppressWarnings("unchecked")
+  private void addEntry(DictionaryIndexBuilder indexBuilder, String key, Object yamlObj) {
+    if (!(yamlObj instanceof Map)) {
+      LOGGER.error("Jiji dictionary entry {} is not a valid entry.", key);
+      return;
+    }
+    Map<String, Object> entryMap = (Map<String, Object>) yamlObj;
+
+    // Parse senses
+    List<String> senses = new ArrayList<>();
+    if (entryMap.containsKey(SENSE_KEY)) {
+      senses.add((String)entryMap.get(SENSE_KEY));
+    } else if (entryMap.containsKey(SENSES_KEY)) {
+      senses.addAll((List<String>)entryMap.get(SENSES_KEY));
+    } else {
+      LOGGER.error("Jiji dictionary entry {} has no sense defined.", key);
+      return;
+    }
 
-      yamlMap.keySet().stream().forEach(key -> {
-        if (key.equals(DICT_INFO_KEY)) {
-          return;
-        }
+    List<String> pronunciations = null;
+    if (entryMap.get(PRONUNCIATION_KEY) != null) {
+      String pronunciationStr = ((String)entryMap.get(PRONUNCIATION_KEY));
+      pronunciations = Arrays.asList(pronunciationStr.split(PRONUNCIATIONS_SPLIT_RE));
+    }
 
-        // Parse a word entry
-        Map<String, Object> entryMap = (Map<String, Object>) yamlMap.get(key);
+    Set<String> tags = null;
+    if (entryMap.get(TAGS_KEY) != null) {
+      String tagStr = ((String)entryMap.get(TAGS_KEY));
+      tags = new HashSet<>(Arrays.asList(tagStr.split(TAGS_SPLIT_RE)));
+    }
 
-        // Parse senses
-        List<String> senses = new ArrayList<>();
-        if (entryMap.containsKey(SENSE_KEY)) {
-          senses.add((String)entryMap.get(SENSE_KEY));
-        } else if (entryMap.containsKey(SENSES_KEY)) {
-          senses.addAll((ArrayList<String>)entryMap.get(SENSES_KEY));
-        } else {
-          LOGGER.error("Jiji dictionary entry {} has no sense defined.", key);
-          return;
-        }
+    // Create Jiji dictionary entry
+    List<String> lemmas = Arrays.asList(key.split(LEMMAS_SPLIT_RE));
+    indexBuilder.addEntry(lemmas, senses, pronunciations, tags);
+  }
 
-        List<String> pronunciations = null;
-        if (entryMap.containsKey(PRONUNCIATION_KEY)) {
-          String pronunciationStr = ((String)entryMap.get(PRONUNCIATION_KEY));
-          pronunciations = Arrays.asList(pronunciationStr.split(PRONUNCIATIONS_SPLIT_RE));
+  /**
+   * Stream the YAML parser events into the index, one entry at a time,
+   * so that the file contents are never fully loaded in memory.
+   */
+  public DictionaryJiji(File jijiDictFile, AppConfig config) {
+    DictionaryIndexBuilder indexBuilder = new DictionaryIndexBuilder(config);
+    try (Reader reader = FileManager.fileAnyEncodingReader(jijiDictFile)) {
+      Iterator<Event> events = new Yaml().parse(reader).iterator();
+      Event event = events.next();
+      while (!event.is(Event.ID.MappingStart)) {
+        // Skip stream and document start, the dictionary is one top-level mapping
+        if (!event.is(Event.ID.StreamStart) && !event.is(Event.ID.DocumentStart)) {
+          throw new YAMLException("A jiji dictionary must be a YAML mapping");
         }
-
-        Set<String> tags = null;
-        if (entryMap.containsKey(TAGS_KEY)) {
-          String tagStr = ((String)entryMap.get(TAGS_KEY));
-          tags = new HashSet<>(Arrays.asList(tagStr.split(TAGS_SPLIT_RE)));
+        event = events.next();
+      }
+      for (event = events.next(); !event.is(Event.ID.MappingEnd); event = events.next()) {
+        String key = String.valueOf(readValue(event, events));
+        Object value = readValue(events.next(), events);
+        if (key.equals(DICT_INFO_KEY)) {
+          this.parseAboutThisDictionary(value);
+          LOGGER.info("Using {} dictionary '{}'", languageFrom, title);
+        } else {
+          addEntry(indexBuilder, key, value);
         }
-
-        // Create Jiji dictionary entry
-        List<String> lemmas = Arrays.asList(key.split(LEMMAS_SPLIT_RE));
-        addEntry(lemmas, senses, pronunciations, tags, config);
-      });
-
-      loadLanguageTags();
-    } catch (IOException exc) {
+      }
+    } catch (IOException | YAMLException | NoSuchElementException | ClassCastException exc) {
       LOGGER.error("Problem reading jijiDictFile {}", jijiDictFile.getAbsolutePath());
       LOGGER.debug(exc);
       throw new UnexpectedCriticalError();
     }
+    if (languageFrom == null) {
+      LOGGER.error("Jiji dictionary {} has no {} section", jijiDictFile.getName(), DICT_INFO_KEY);
+      throw new UnexpectedCriticalError();
+    }
+
+    index = indexBuilder.build();
+  }
+
+  public DictionaryIndex getIndex() {
+    return index;
   }
 
   public String getTitle() {
@@ -0,0 +1,220 @@
+package jijimaku.services.dictionary;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jijimaku.AppConfig;
+import jijimaku.errors.UnexpectedCriticalError;
+import jijimaku.services.LanguageService.Language;
+import jijimaku.utils.FileManager;
+
+
+/**
+ * Load the JMdict XML Japanese dictionary(http://www.edrdg.org/jmdict/j_jmdict.html) into a dictionary index.
+ * The XML file is streamed with StAX one entry at a time, so the 100+ MB file is never loaded in memory.
+ * It can also be read gzipped as distributed(JMdict_e.gz).
+ *
+ * <p>An entry lemmas are its kanji forms(keb), its readings(reb) are the pronunciations.
+ * The readings are also lemmas when the entry has no kanji form or is usually written in kana(uk).
+ * Each sense gives one definition made of its English glosses, and the nfXX frequency ranks are copied as tags.
+ */
+public class DictionaryJmdict implements Dictionary {
+  private static final Logger LOGGER;
+
+  static {
+    System.setProperty("logDir", FileManager.getLogsDirectory());
+    LOGGER = LogManager.getLogger();
+  }
+
+  private static final String ENTRY = "entry";
+  private static final String KANJI = "keb";
+  private static final String READING = "reb";
+  private static final String KANJI_PRIORITY = "ke_pri";
+  private static final String READING_PRIORITY = "re_pri";
+  private static final String SENSE = "sense";
+  private static final String MISC = "misc";
+  private static final String GLOSS = "gloss";
+  private static final String GLOSS_LANGUAGE = "eng";
+  private static final String FREQUENCY_PRIORITY_PREFIX = "nf";
+  private static final String USUALLY_KANA_ENTITY = "uk";
+  private static final String GLOSS_SEPARATOR = ", ";
+  // JMdict has far more entity references(part of speech, misc info...) than the default JAXP limit
+  private static final String ENTITY_EXPANSION_LIMIT_PROPERTY = "http://www.oracle.com/xml/jaxp/properties/entityExpansionLimit";
+
+  private final String title;
+  private final DictionaryIndex index;
+
+  /**
+   * Contents of the JMdict entry being read.
+   */
+  private static class Entry {
+    private final Set<String> kanjis = new LinkedHashSet<>();
+    private final Set<String> readings = new LinkedHashSet<>();
+    private final List<String> senses = new ArrayList<>();
+    private final Set<String> tags = new HashSet<>();
+    private final List<String> glosses = new ArrayList<>();
+    private boolean usuallyKana = false;
+  }
+
+  /**
+   * Return true if a file is named like a JMdict file: JMdict*.xml, or JMdict* without extension or gzipped.
+   * Other XML files can be used as a JMdict file when they are set in the config.
+   */
+  public static boolean isJmdictFile(String fileName) {
+    String name = fileName.toLowerCase();
+    return name.startsWith("jmdict") && (!name.contains(".") || name.endsWith(".xml") || name.endsWith(".gz"));
+  }
+
+  public DictionaryJmdict(File jmdictFile, AppConfig config) {
+    title = jmdictFile.getName();
+    LOGGER.info("Using {} dictionary '{}'", getLanguageFrom(), title);
+    DictionaryIndexBuilder indexBuilder = new DictionaryIndexBuilder(config);
+    try (InputStream in = open(jmdictFile)) {
+      XMLStreamReader xml = createXmlFactory().createXMLStreamReader(in);
+      try {
+        readEntries(xml, indexBuilder);
+      } finally {
+        xml.close();
+      }
+    } catch (IOException | XMLStreamException exc) {
+      LOGGER.debug(exc);
+      LOGGER.error("Problem reading JMdict file {}", jmdictFile.getAbsolutePath());
+      throw new UnexpectedCriticalError();
+    }
+    index = indexBuilder.build();
+  }
+
+  private static InputStream open(File jmdictFile) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(jmdictFile), 64 * 1024);
+    if (jmdictFile.getName().toLowerCase().endsWith(".gz")) {
+      try {
+        in = new BufferedInputStream(new GZIPInputStream(in, 64 * 1024), 64 * 1024);
+      } catch (IOException exc) {
+        in.close();
+        throw exc;
+      }
+    }
+    return in;
+  }
+
+  /**
+   * The DTD internal subset is needed for the entities, but entity references are not replaced:
+   * the entity name(e.g. uk) is what identifies the info, not its text.
+   */
+  private static XMLInputFactory createXmlFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, true);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+    try {
+      factory.setProperty(ENTITY_EXPANSION_LIMIT_PROPERTY, "0");
+    } catch (IllegalArgumentException exc) {
+      LOGGER.debug("XML parser does not support the entity expansion limit property");
+    }
+    return factory;
+  }
+
+  /**
+   * Read the entries one by one, each entry is added to the index as soon as its end tag is read.
+   */
+  private void readEntries(XMLStreamReader xml, DictionaryIndexBuilder indexBuilder) throws XMLStreamException {
+    Entry entry = null;
+    while (xml.hasNext()) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String element = xml.getLocalName();
+        if (element.equals(ENTRY)) {
+          entry = new Entry();
+        } else if (entry == null) {
+          continue;
+        } else if (element.equals(KANJI)) {
+          entry.kanjis.add(xml.getElementText().trim());
+        } else if (element.equals(READING)) {
+          entry.readings.add(xml.getElementText().trim());
+        } else if (element.equals(KANJI_PRIORITY) || element.equals(READING_PRIORITY)) {
+          String priority = xml.getElementText().trim();
+          if (priority.startsWith(FREQUENCY_PRIORITY_PREFIX)) {
+            entry.tags.add(priority);
+          }
+        } else if (element.equals(MISC)) {
+          entry.usuallyKana |= readEntityName(xml).equals(USUALLY_KANA_ENTITY);
+        } else if (element.equals(GLOSS)) {
+          String language = xml.getAttributeValue(XMLConstants.XML_NS_URI, "lang");
+          String gloss = xml.getElementText().trim();
+          if ((language == null || language.equals(GLOSS_LANGUAGE)) && !gloss.isEmpty()) {
+            entry.glosses.add(gloss);
+          }
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT && entry != null) {
+        String element = xml.getLocalName();
+        if (element.equals(SENSE)) {
+          if (!entry.glosses.isEmpty()) {
+            entry.senses.add(String.join(GLOSS_SEPARATOR, entry.glosses));
+          }
+          entry.glosses.clear();
+        } else if (element.equals(ENTRY)) {
+          addEntry(indexBuilder, entry);
+          entry = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the name of the entity referenced in an element(e.g. uk for &lt;misc&gt;&amp;uk;&lt;/misc&gt;).
+   */
+  private static String readEntityName(XMLStreamReader xml) throws XMLStreamException {
+    StringBuilder name = new StringBuilder();
+    for (int event = xml.next(); event != XMLStreamConstants.END_ELEMENT; event = xml.next()) {
+      if (event == XMLStreamConstants.ENTITY_REFERENCE) {
+        name.append(xml.getLocalName());
+      }
+    }
+    return name.toString();
+  }
+
+  private static void addEntry(DictionaryIndexBuilder indexBuilder, Entry entry) {
+    if (entry.senses.isEmpty() || (entry.kanjis.isEmpty() && entry.readings.isEmpty())) {
+      return;
+    }
+    Set<String> lemmas = new LinkedHashSet<>(entry.kanjis);
+    if (entry.kanjis.isEmpty() || entry.usuallyKana) {
+      lemmas.addAll(entry.readings);
+    }
+    indexBuilder.addEntry(new ArrayList<>(lemmas), entry.senses,
+        entry.readings.isEmpty() ? null : new ArrayList<>(entry.readings), entry.tags.isEmpty() ? null : entry.tags);
+  }
+
+  public DictionaryIndex getIndex() {
+    return index;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public Language getLanguageFrom() {
+    return Language.JAPANESE;
+  }
+
+  public Logger getLogger() {
+    return LOGGER;
+  }
+}
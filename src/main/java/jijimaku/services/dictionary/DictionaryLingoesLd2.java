@@ -1,10 +1,14 @@
 package jijimaku.services.dictionary;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.PriorityQueue;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -15,8 +19,6 @@ import jijimaku.services.LanguageService;
 import jijimaku.services.LanguageService.Language;
 import jijimaku.utils.FileManager;
 
-import cn.kk.extractor.lingoes.LingoesLd2Extractor;
-
 
 public class DictionaryLingoesLd2 implements Dictionary {
   private static final Logger LOGGER;
@@ -26,22 +28,31 @@ public class DictionaryLingoesLd2 implements Dictionary {
     LOGGER = LogManager.getLogger();
   }
 
+  // Number of longest words used for the language detection
+  private static final int LANGUAGE_DETECTION_WORDS = 5;
+
   private String title;
   private Language languageFrom;
+  private final DictionaryIndex index;
 
   public DictionaryLingoesLd2(File dictFile, AppConfig config) {
-    Map<String,String> definitions;
+    LingoesLd2Reader reader;
     try {
       title = dictFile.getName();
-      LingoesLd2Extractor extractor = new LingoesLd2Extractor();
-      definitions = extractor.extractLd2ToMap(dictFile);
+      reader = new LingoesLd2Reader(dictFile);
     } catch (Exception exc) {
       LOGGER.error("Problem reading LD2 dictionary file {}", dictFile.getAbsolutePath());
       LOGGER.debug(exc);
       throw new UnexpectedCriticalError();
     }
 
-    languageFrom = detectLanguage(config.getDictionaryLanguage(), dictFile.getName(), definitions);
+    // Word numbers, to resolve the definitions that are a reference to another entry
+    Map<String, Integer> wordIds = new HashMap<>(reader.size() * 2);
+    for (int i = 0; i < reader.size(); i++) {
+      wordIds.put(reader.getWord(i), i);
+    }
+
+    languageFrom = detectLanguage(config.getDictionaryLanguage(), dictFile.getName(), wordIds.keySet());
     if (languageFrom == null) {
       LOGGER.error("Cannot detect language of LD2 dictionary {}, please use the "
           + "'dictionaryLanguage' config option set to a correct language", dictFile.getAbsolutePath());
@@ -49,29 +60,34 @@ public class DictionaryLingoesLd2 implements Dictionary {
     }
     LOGGER.info("Using {} dictionary '{}'", languageFrom, title);
 
-    for (Map.Entry<String, String> def : definitions.entrySet()) {
-      String lemma = def.getKey();
+    DictionaryIndexBuilder indexBuilder = new DictionaryIndexBuilder(config);
+    for (Map.Entry<String, Integer> word : wordIds.entrySet()) {
       // Strip lemma from comma (happen in some LD2 dictionaries)
-      lemma = lemma.replaceAll("^,|,$", "");
+      String lemma = word.getKey().replaceAll("^,|,$", "");
 
       if (lemma.contains(",") || lemma.contains(";")) {
         LOGGER.debug("Lemma {} contains a comma, it will be ignored", lemma);
         continue;
       }
 
-      String value = def.getValue();
+      String value = reader.getDefinition(word.getValue());
       // this is a reference to another entry
-      if (definitions.containsKey(value)) {
-        value = definitions.get(value);
+      Integer referenceId = wordIds.get(value);
+      if (referenceId != null) {
+        value = reader.getDefinition(referenceId);
       }
 
-      addEntry(Collections.singletonList(lemma), Collections.singletonList(value), null, null, config);
+      indexBuilder.addEntry(Collections.singletonList(lemma), Collections.singletonList(value), null, null);
     }
 
-    loadLanguageTags();
+    index = indexBuilder.build();
   }
 
-  private Language detectLanguage(String dictLanguageConfig, String dictFileName, Map<String,String> definitions) {
+  /**
+   * Return the language of an LD2 dictionary given by the config or by its file name, without reading the file.
+   * @return the language, or null if it can only be detected from the words of the dictionary.
+   */
+  public static Language getLanguageFromConfigOrName(String dictLanguageConfig, String dictFileName) {
     Language detected = null;
 
     // Read dictionary language from config
@@ -79,26 +95,36 @@ public class DictionaryLingoesLd2 implements Dictionary {
       detected = LanguageService.getLanguageFromStr(dictLanguageConfig);
     }
 
-    LOGGER.info("Config value dictionaryLanguage is missing, will try to detect LD2 dictionary language...");
-
     // Detect dictionary language from file name
     if (detected == null) {
       detected = LanguageService.detectFromFilename(dictFileName);
     }
+    return detected;
+  }
+
+  private Language detectLanguage(String dictLanguageConfig, String dictFileName, Collection<String> words) {
+    Language detected = getLanguageFromConfigOrName(dictLanguageConfig, dictFileName);
 
-    // Perform language detection on the longuest entries for more accuracy
     if (detected == null) {
+      LOGGER.info("Config value dictionaryLanguage is missing, will try to detect LD2 dictionary language...");
       // Perform language detection on the longuest entries for more accuracy
-      List<String> longestWords = definitions
-          .keySet().stream()
-          .sorted((String s1, String s2) -> Integer.compare(s2.length(), s1.length()))
-          .limit(5)
-          .collect(Collectors.toList());
-      detected = LanguageService.detectFromList(longestWords);
+      // Keep the longest words in a min-heap of bounded size instead of sorting all words
+      PriorityQueue<String> longestWords = new PriorityQueue<>(LANGUAGE_DETECTION_WORDS + 1, Comparator.comparingInt(String::length));
+      for (String word : words) {
+        longestWords.add(word);
+        if (longestWords.size() > LANGUAGE_DETECTION_WORDS) {
+          longestWords.poll();
+        }
+      }
+      detected = LanguageService.detectFromList(new ArrayList<>(longestWords));
     }
     return detected;
   }
 
+  public DictionaryIndex getIndex() {
+    return index;
+  }
+
   public String getTitle() {
     return title;
   }
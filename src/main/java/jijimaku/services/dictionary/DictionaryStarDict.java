@@ -0,0 +1,166 @@
+package jijimaku.services.dictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jijimaku.AppConfig;
+import jijimaku.errors.UnexpectedCriticalError;
+import jijimaku.services.LanguageService;
+import jijimaku.services.LanguageService.Language;
+import jijimaku.utils.FileManager;
+
+
+/**
+ * StarDict dictionary(http://www.huzheng.org/stardict/), used directly from its files.
+ * The .ifo file describes the dictionary, the .idx and .dict(or .dict.dz) files next to it are memory-mapped
+ * and searched in place: nothing is loaded in memory, so opening even a very large dictionary is almost instantaneous
+ * and it does not need to be compiled.
+ */
+public class DictionaryStarDict implements Dictionary {
+  private static final Logger LOGGER;
+
+  static {
+    System.setProperty("logDir", FileManager.getLogsDirectory());
+    LOGGER = LogManager.getLogger();
+  }
+
+  public static final String IFO_EXT = ".ifo";
+  private static final String IFO_MAGIC = "StarDict's dict ifo file";
+  // Number of longest words used for the language detection
+  private static final int LANGUAGE_DETECTION_WORDS = 5;
+
+  private final String title;
+  private final Language languageFrom;
+  private final DictionaryIndexStarDict index;
+
+  public DictionaryStarDict(File ifoFile, AppConfig config) {
+    Map<String, String> info = readInfo(ifoFile);
+    title = info.getOrDefault("bookname", ifoFile.getName());
+
+    File[] dataFiles = getDataFiles(ifoFile);
+    File idxFile = dataFiles[0];
+    File dictFile = dataFiles[1];
+    if (!idxFile.exists() || !dictFile.exists()) {
+      LOGGER.error("StarDict dictionary {} must have its .idx and .dict(or .dict.dz) files in the same directory", ifoFile.getName());
+      throw new UnexpectedCriticalError();
+    }
+    try {
+      index = new DictionaryIndexStarDict(idxFile, dictFile, "64".equals(info.get("idxoffsetbits")),
+          info.get("sametypesequence"), DictionaryIndexBuilder.getCleanupPattern(config));
+    } catch (IOException exc) {
+      LOGGER.debug(exc);
+      LOGGER.error("Problem reading StarDict dictionary {}: {}", ifoFile.getAbsolutePath(), exc.getMessage());
+      throw new UnexpectedCriticalError();
+    }
+
+    languageFrom = detectLanguage(config.getDictionaryLanguage(), ifoFile.getName(), title);
+    if (languageFrom == null) {
+      LOGGER.error("Cannot detect language of StarDict dictionary {}, please use the "
+          + "'dictionaryLanguage' config option set to a correct language", ifoFile.getAbsolutePath());
+      throw new UnexpectedCriticalError();
+    }
+    LOGGER.info("Using {} dictionary '{}'", languageFrom, title);
+    LOGGER.debug("Opened StarDict dictionary {} ({} lemmas)", ifoFile.getName(), index.size());
+  }
+
+  /**
+   * Return the .idx and .dict(or .dict.dz) files of a StarDict dictionary, they may not exist.
+   */
+  public static File[] getDataFiles(File ifoFile) {
+    String basePath = ifoFile.getPath().substring(0, ifoFile.getPath().length() - IFO_EXT.length());
+    File dictFile = new File(basePath + ".dict");
+    if (!dictFile.exists()) {
+      dictFile = new File(basePath + ".dict.dz");
+    }
+    return new File[] {new File(basePath + ".idx"), dictFile};
+  }
+
+  /**
+   * Read the key=value lines of the .ifo file.
+   */
+  private static Map<String, String> readInfo(File ifoFile) {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(ifoFile.toPath(), StandardCharsets.UTF_8);
+    } catch (IOException exc) {
+      LOGGER.debug(exc);
+      LOGGER.error("Problem reading StarDict dictionary file {}", ifoFile.getAbsolutePath());
+      throw new UnexpectedCriticalError();
+    }
+    if (lines.isEmpty() || !lines.get(0).replace("\uFEFF", "").trim().equals(IFO_MAGIC)) {
+      LOGGER.error("{} is not a StarDict .ifo file", ifoFile.getAbsolutePath());
+      throw new UnexpectedCriticalError();
+    }
+    Map<String, String> info = new HashMap<>();
+    for (String line : lines.subList(1, lines.size())) {
+      int separator = line.indexOf('=');
+      if (separator > 0) {
+        info.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+      }
+    }
+    return info;
+  }
+
+  /**
+   * Return the language of a StarDict dictionary given by the config, by its file name or by its title,
+   * reading only the .ifo file.
+   * @return the language, or null if it can only be detected from the words of the dictionary.
+   */
+  public static Language getLanguageFromConfigOrInfo(String dictLanguageConfig, File ifoFile) {
+    Map<String, String> info = readInfo(ifoFile);
+    return getLanguageFromConfigOrName(dictLanguageConfig, ifoFile.getName(), info.getOrDefault("bookname", ifoFile.getName()));
+  }
+
+  private static Language getLanguageFromConfigOrName(String dictLanguageConfig, String dictFileName, String title) {
+    Language detected = null;
+
+    // Read dictionary language from config
+    if (dictLanguageConfig != null && !dictLanguageConfig.isEmpty()) {
+      detected = LanguageService.getLanguageFromStr(dictLanguageConfig);
+    }
+
+    // Detect dictionary language from file name or title
+    if (detected == null) {
+      detected = LanguageService.detectFromFilename(dictFileName);
+    }
+    if (detected == null) {
+      detected = LanguageService.detectFromFilename(title);
+    }
+    return detected;
+  }
+
+  private Language detectLanguage(String dictLanguageConfig, String dictFileName, String title) {
+    Language detected = getLanguageFromConfigOrName(dictLanguageConfig, dictFileName, title);
+
+    // Perform language detection on the longuest entries for more accuracy
+    if (detected == null) {
+      LOGGER.info("Config value dictionaryLanguage is missing, will try to detect StarDict dictionary language...");
+      detected = LanguageService.detectFromList(index.longestWords(LANGUAGE_DETECTION_WORDS));
+    }
+    return detected;
+  }
+
+  public DictionaryIndex getIndex() {
+    return index;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public Language getLanguageFrom() {
+    return languageFrom;
+  }
+
+  public Logger getLogger() {
+    return LOGGER;
+  }
+}
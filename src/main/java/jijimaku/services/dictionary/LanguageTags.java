@@ -0,0 +1,254 @@
+package jijimaku.services.dictionary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jijimaku.errors.UnexpectedCriticalError;
+import jijimaku.utils.FileManager;
+
+
+/**
+ * Default word tags of the dictionary language.
+ * For each language there is a directory containing the language tags text files(*.txt)
+ * One text file corresponds to one tag, and must contain one lemma to be tagged per line.
+ * A dictionary entry has a language tag if one of its lemmas is in the tag file.
+ *
+ * <p>Only the tags actually used(e.g. listed in ignoreTags) are loaded, when a mask is requested for them.
+ * The dictionary lemmas of each loaded tag are saved in a cache file next to the compiled dictionary,
+ * so that the next launches do not read the tag files again until they are modified.
+ */
+public class LanguageTags {
+  private static final Logger LOGGER;
+
+  static {
+    System.setProperty("logDir", FileManager.getLogsDirectory());
+    LOGGER = LogManager.getLogger();
+  }
+
+  private static final byte[] MAGIC = "JIJITAGS".getBytes(StandardCharsets.US_ASCII);
+  private static final int FORMAT_VERSION = 1;
+  private static final String TAG_FILE_EXT = ".txt";
+
+  private final Dictionary dictionary;
+  private final Path tagsDir;
+  private final File cacheFile;
+  private final TagTable tagTable = new TagTable();
+  private final Set<String> loadedTags = new HashSet<>();
+  // Language tags of the dictionary lemmas, for the tags loaded so far. Bitsets are replaced, never modified.
+  private final Map<String, long[]> lemmaTags = new ConcurrentHashMap<>();
+
+  /**
+   * Dictionary lemmas of a tag, as saved in the cache file.
+   */
+  private static class CachedTag {
+    private final String fingerprint;
+    private final List<String> lemmas;
+
+    private CachedTag(String fingerprint, List<String> lemmas) {
+      this.fingerprint = fingerprint;
+      this.lemmas = lemmas;
+    }
+  }
+
+  /**
+   * Constructor.
+   * @param cacheFile where to save the loaded tags, or null to not cache them
+   */
+  public LanguageTags(Dictionary dictionary, File cacheFile) {
+    this.dictionary = dictionary;
+    this.cacheFile = cacheFile;
+    tagsDir = Paths.get(FileManager.getAppDirectory() + "/" + Dictionary.LANGUAGE_TAGS_DIR
+        + dictionary.getLanguageFrom().toString().toLowerCase());
+    if (!Files.exists(tagsDir)) {
+      LOGGER.warn("No default language tags for language {}", dictionary.getLanguageFrom().toString());
+    }
+  }
+
+  /**
+   * Return the mask of some tags, to check entries with hasAnyTag. The tags are loaded if needed.
+   * Tags without a language tags file are ignored(they can be tags of the dictionary itself).
+   */
+  public synchronized long[] mask(Collection<String> tags) {
+    List<String> tagsToLoad = tags.stream()
+        .filter(tag -> !loadedTags.contains(tag) && Files.exists(tagsDir.resolve(tag + TAG_FILE_EXT)))
+        .distinct()
+        .collect(Collectors.toList());
+    if (!tagsToLoad.isEmpty()) {
+      Map<String, CachedTag> cachedTags = readCache();
+      boolean cacheModified = false;
+      for (String tag : tagsToLoad) {
+        Path tagFile = tagsDir.resolve(tag + TAG_FILE_EXT);
+        String fingerprint = getFingerprint(tagFile);
+        CachedTag cached = cachedTags.get(tag);
+        if (cached == null || !cached.fingerprint.equals(fingerprint)) {
+          cached = new CachedTag(fingerprint, readTagFile(tag, tagFile));
+          cachedTags.put(tag, cached);
+          cacheModified = true;
+        }
+        int id = tagTable.intern(tag);
+        for (String lemma : cached.lemmas) {
+          lemmaTags.compute(lemma, (key, bits) -> TagTable.withTag(bits == null ? null : bits.clone(), id));
+        }
+      }
+      if (cacheModified) {
+        writeCache(cachedTags);
+      }
+    }
+    loadedTags.addAll(tags);
+    return tagTable.mask(tags);
+  }
+
+  /**
+   * Return true if the entry has one of the tags of a mask.
+   */
+  public boolean hasAnyTag(DictionaryEntry entry, long[] tagMask) {
+    for (String lemma : entry.getLemmas()) {
+      if (TagTable.intersects(lemmaTags.get(lemma), tagMask)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return the loaded language tags of an entry.
+   */
+  public Set<String> getTags(DictionaryEntry entry) {
+    Set<String> tags = new HashSet<>();
+    for (String lemma : entry.getLemmas()) {
+      Set<String> lemmaTagNames = tagTable.names(lemmaTags.get(lemma));
+      if (lemmaTagNames != null) {
+        tags.addAll(lemmaTagNames);
+      }
+    }
+    return tags;
+  }
+
+  /**
+   * Return the lines of a tag file that are dictionary lemmas.
+   */
+  private List<String> readTagFile(String tag, Path tagFile) {
+    LOGGER.debug("Loading {} language tag {}", dictionary.getLanguageFrom().toString(), tag);
+    try (Stream<String> lines = Files.lines(tagFile)) {
+      return lines.filter(l -> !dictionary.search(l).isEmpty()).distinct().collect(Collectors.toList());
+    } catch (IOException | UncheckedIOException exc) {
+      LOGGER.debug(exc);
+      LOGGER.error("Error while loading {} language tags {}", dictionary.getLanguageFrom().toString(), tag);
+      throw new UnexpectedCriticalError();
+    }
+  }
+
+  /**
+   * Summary of all the tag files of the language, to detect when one of them is added, removed or modified.
+   */
+  public String getTagFilesFingerprint() {
+    if (!Files.exists(tagsDir)) {
+      return "";
+    }
+    try (Stream<Path> files = Files.list(tagsDir)) {
+      return files.filter(f -> f.getFileName().toString().endsWith(TAG_FILE_EXT))
+          .sorted()
+          .map(f -> f.getFileName() + ":" + getFingerprint(f))
+          .collect(Collectors.joining(","));
+    } catch (IOException exc) {
+      LOGGER.debug("Cannot list the language tags of {}", tagsDir, exc);
+      return "";
+    }
+  }
+
+  /**
+   * Summary of a tag file, to detect when it is modified.
+   */
+  private static String getFingerprint(Path tagFile) {
+    try {
+      return Files.size(tagFile) + ":" + Files.getLastModifiedTime(tagFile).toMillis();
+    } catch (IOException exc) {
+      return "";
+    }
+  }
+
+  private Map<String, CachedTag> readCache() {
+    Map<String, CachedTag> cachedTags = new HashMap<>();
+    if (cacheFile == null || !cacheFile.exists()) {
+      return cachedTags;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC) || in.readInt() != FORMAT_VERSION) {
+        return cachedTags;
+      }
+      int nbTags = in.readInt();
+      for (int i = 0; i < nbTags; i++) {
+        String tag = in.readUTF();
+        String fingerprint = in.readUTF();
+        int nbLemmas = in.readInt();
+        List<String> lemmas = new ArrayList<>(nbLemmas);
+        for (int j = 0; j < nbLemmas; j++) {
+          lemmas.add(in.readUTF());
+        }
+        cachedTags.put(tag, new CachedTag(fingerprint, lemmas));
+      }
+    } catch (IOException exc) {
+      LOGGER.debug("Cannot read language tags cache {}", cacheFile.getAbsolutePath(), exc);
+      cachedTags.clear();
+    }
+    return cachedTags;
+  }
+
+  /**
+   * Save the loaded tags. Failing to write the cache is not critical, the tag files will just be read again next time.
+   */
+  private void writeCache(Map<String, CachedTag> cachedTags) {
+    if (cacheFile == null) {
+      return;
+    }
+    Path tmp = Paths.get(cacheFile.getPath() + ".tmp");
+    try {
+      Files.createDirectories(tmp.getParent());
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+        out.write(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(cachedTags.size());
+        for (Map.Entry<String, CachedTag> cachedTag : cachedTags.entrySet()) {
+          out.writeUTF(cachedTag.getKey());
+          out.writeUTF(cachedTag.getValue().fingerprint);
+          out.writeInt(cachedTag.getValue().lemmas.size());
+          for (String lemma : cachedTag.getValue().lemmas) {
+            out.writeUTF(lemma);
+          }
+        }
+      }
+      Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException exc) {
+      LOGGER.debug(exc);
+      LOGGER.warn("Could not write the language tags cache to {}", cacheFile.getAbsolutePath());
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package jijimaku.services.dictionary;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Walk the lemmas of a dictionary index one fragment at a time(e.g. one text token at a time).
+ * A cursor starts on the empty prefix, and can be advanced as long as some lemma starts with the walked prefix.
+ * This lets the longest lemma matching a sequence of tokens be found in a single pass over the tokens.
+ * A cursor is cheap to create and must only be used by one thread.
+ */
+public interface LemmaCursor {
+
+  /**
+   * Cursor of an index without any lemma.
+   */
+  LemmaCursor NONE = new LemmaCursor() {
+    @Override
+    public boolean advance(CharSequence fragment) {
+      return false;
+    }
+
+    @Override
+    public boolean hasEntries() {
+      return false;
+    }
+
+    @Override
+    public List<DictionaryEntry> entries() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public LemmaCursor copy() {
+      return this;
+    }
+  };
+
+  /**
+   * Append a fragment to the walked prefix.
+   * @return false if no lemma starts with the new prefix, the cursor cannot be advanced anymore in that case.
+   */
+  boolean advance(CharSequence fragment);
+
+  /**
+   * Return true if a lemma is equal to the walked prefix, without reading its entries.
+   */
+  boolean hasEntries();
+
+  /**
+   * Return the entries of the lemma equal to the walked prefix, or an empty list if there is none.
+   * Entries can be decoded from disk on each call: check hasEntries first when they may not be used.
+   */
+  List<DictionaryEntry> entries();
+
+  /**
+   * Return an independent cursor on the same prefix, to walk two different continuations of the prefix.
+   */
+  LemmaCursor copy();
+}
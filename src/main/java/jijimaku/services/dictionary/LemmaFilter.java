@@ -0,0 +1,220 @@
+package jijimaku.services.dictionary;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Blocked Bloom filter over all the prefixes of the lemmas of an index, checked before the index itself:
+ * most of the token sequences looked up are not lemmas, and the filter rejects nearly all of them
+ * after reading a single 64 bytes block, without touching the index.
+ * Because every prefix is in the filter, it also stops a lemma cursor as soon as no lemma starts with the walked prefix.
+ *
+ * <p>The hash of a prefix is computed incrementally, one fragment at a time, as the cursor walks it.
+ * All the bits set for a key are in one block of BLOCK_BITS, selected from the key hash.
+ * The filter is immutable once built and can be shared by several threads.
+ */
+public final class LemmaFilter {
+
+  private static final int BLOCK_LONGS = 8;
+  private static final int BLOCK_BITS = BLOCK_LONGS * Long.SIZE;
+  private static final int MAX_HASH_COUNT = 16;
+  // FNV-1a 64 bits parameters
+  private static final long EMPTY_HASH = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final LongBuffer bits;
+  private final int blockCount;
+  private final int hashCount;
+
+  private LemmaFilter(LongBuffer bits, int hashCount) {
+    this.bits = bits;
+    this.blockCount = bits.capacity() / BLOCK_LONGS;
+    this.hashCount = hashCount;
+  }
+
+  /**
+   * Build the filter of a set of lemmas.
+   * @param sortedLemmas the distinct lemmas, sorted so that the lemmas with a common prefix are next to each other
+   * @param falsePositiveRate the wanted probability that a prefix that is not in the filter is not rejected
+   */
+  static LemmaFilter build(List<String> sortedLemmas, double falsePositiveRate) {
+    // Lemmas sharing a prefix are contiguous, so each new prefix of a lemma is one that is not a prefix of the previous lemma
+    long prefixCount = 0;
+    String previous = "";
+    for (String lemma : sortedLemmas) {
+      prefixCount += lemma.length() - commonPrefixLength(previous, lemma);
+      previous = lemma;
+    }
+
+    double ln2 = Math.log(2);
+    long bitCount = (long) Math.ceil(-Math.max(1, prefixCount) * Math.log(falsePositiveRate) / (ln2 * ln2));
+    int blocks = (int) Math.min(Integer.MAX_VALUE / BLOCK_LONGS, Math.max(1, (bitCount + BLOCK_BITS - 1) / BLOCK_BITS));
+    int hashes = (int) Math.max(1, Math.min(MAX_HASH_COUNT, Math.round(-Math.log(falsePositiveRate) / ln2)));
+    LemmaFilter filter = new LemmaFilter(LongBuffer.allocate(blocks * BLOCK_LONGS), hashes);
+
+    previous = "";
+    for (String lemma : sortedLemmas) {
+      int common = commonPrefixLength(previous, lemma);
+      long hash = hash(EMPTY_HASH, lemma.subSequence(0, common));
+      for (int i = common; i < lemma.length(); i++) {
+        hash = hash(hash, lemma.charAt(i));
+        filter.add(hash);
+      }
+      previous = lemma;
+    }
+    return filter;
+  }
+
+  private static int commonPrefixLength(String s1, String s2) {
+    int common = 0;
+    int max = Math.min(s1.length(), s2.length());
+    while (common < max && s1.charAt(common) == s2.charAt(common)) {
+      common++;
+    }
+    return common;
+  }
+
+  private static long hash(long hash, char c) {
+    return (hash ^ c) * FNV_PRIME;
+  }
+
+  private static long hash(long hash, CharSequence fragment) {
+    for (int i = 0; i < fragment.length(); i++) {
+      hash = hash(hash, fragment.charAt(i));
+    }
+    return hash;
+  }
+
+  /**
+   * Finalization of MurmurHash3, so that all the bits of the result depend on all the bits of the FNV hash.
+   */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private void add(long hash) {
+    long blockHash = mix(hash);
+    int block = BLOCK_LONGS * (int) (((blockHash >>> 32) * blockCount) >>> 32);
+    long bitsHash = mix(blockHash);
+    int h1 = (int) bitsHash;
+    int h2 = (int) (bitsHash >>> 32) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+      int word = block + (bit >>> 6);
+      bits.put(word, bits.get(word) | (1L << bit));
+    }
+  }
+
+  private boolean mightContain(long hash) {
+    long blockHash = mix(hash);
+    int block = BLOCK_LONGS * (int) (((blockHash >>> 32) * blockCount) >>> 32);
+    long bitsHash = mix(blockHash);
+    int h1 = (int) bitsHash;
+    int h2 = (int) (bitsHash >>> 32) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+      if ((bits.get(block + (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return false if no lemma of the index starts with(or is equal to) this text, true if some lemma might.
+   */
+  boolean mightStartWith(CharSequence text) {
+    return mightContain(hash(EMPTY_HASH, text));
+  }
+
+  /**
+   * Wrap a cursor of the filtered index so that a prefix rejected by the filter is not searched in the index.
+   */
+  LemmaCursor filteringCursor(LemmaCursor cursor) {
+    return filteringCursor(cursor, EMPTY_HASH, false);
+  }
+
+  private LemmaCursor filteringCursor(LemmaCursor cursor, long startHash, boolean startRejected) {
+    return new LemmaCursor() {
+      private long hash = startHash;
+      // The wrapped cursor is not advanced anymore once the filter rejected the prefix
+      private boolean rejected = startRejected;
+
+      @Override
+      public boolean advance(CharSequence fragment) {
+        if (rejected) {
+          return false;
+        }
+        hash = hash(hash, fragment);
+        rejected = !mightContain(hash);
+        return !rejected && cursor.advance(fragment);
+      }
+
+      @Override
+      public boolean hasEntries() {
+        return !rejected && cursor.hasEntries();
+      }
+
+      @Override
+      public List<DictionaryEntry> entries() {
+        return rejected ? Collections.emptyList() : cursor.entries();
+      }
+
+      @Override
+      public LemmaCursor copy() {
+        return filteringCursor(cursor.copy(), hash, rejected);
+      }
+    };
+  }
+
+  /**
+   * Size of the filter in memory or on disk.
+   */
+  public long sizeInBytes() {
+    return (long) bits.capacity() * Long.BYTES;
+  }
+
+  /**
+   * Estimate the actual false positive rate of the filter from the proportion of bits set.
+   */
+  public double getFalsePositiveRate() {
+    long setBits = 0;
+    for (int i = 0; i < bits.capacity(); i++) {
+      setBits += Long.bitCount(bits.get(i));
+    }
+    return Math.pow((double) setBits / (bits.capacity() * (double) Long.SIZE), hashCount);
+  }
+
+  /**
+   * Write the filter: int hashCount, int number of longs, long[] bits.
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(hashCount);
+    out.writeInt(bits.capacity());
+    for (int i = 0; i < bits.capacity(); i++) {
+      out.writeLong(bits.get(i));
+    }
+  }
+
+  /**
+   * Read a filter written by write, its bits are read in place from the buffer.
+   */
+  static LemmaFilter read(ByteBuffer buffer, int offset) {
+    int hashes = buffer.getInt(offset);
+    int longCount = buffer.getInt(offset + 4);
+    ByteBuffer bitsBuffer = buffer.duplicate();
+    bitsBuffer.position(offset + 8);
+    bitsBuffer.limit(offset + 8 + longCount * Long.BYTES);
+    return new LemmaFilter(bitsBuffer.slice().asLongBuffer(), hashes);
+  }
+}
@@ -0,0 +1,117 @@
+package jijimaku.services.dictionary;
+
+import java.util.Arrays;
+
+
+/**
+ * Compact character trie over a set of lemmas, used to walk lemmas prefix by prefix.
+ * Nodes are numbered in breadth-first order so that the children of a node are contiguous
+ * and sorted by character: a node is only a character label, a children range and a value,
+ * stored in three flat arrays instead of one object per node.
+ */
+class LemmaTrie {
+
+  static final int ROOT = 0;
+  static final int NONE = -1;
+
+  private final char[] labels;
+  // Children of node n are the nodes firstChild[n] to firstChild[n + 1] - 1
+  private final int[] firstChild;
+  private final int[] values;
+
+  /**
+   * Build the trie.
+   * @param keys the lemmas, all distinct
+   * @param keyValues value associated with each lemma(e.g. its slot in a table of entries)
+   */
+  LemmaTrie(String[] keys, int[] keyValues) {
+    Integer[] order = new Integer[keys.length];
+    int maxNodes = 1;
+    for (int i = 0; i < keys.length; i++) {
+      order[i] = i;
+      maxNodes += keys[i].length();
+    }
+    Arrays.sort(order, (k1, k2) -> keys[k1].compareTo(keys[k2]));
+
+    char[] nodeLabels = new char[maxNodes];
+    int[] nodeFirstChild = new int[maxNodes + 1];
+    int[] nodeValues = new int[maxNodes];
+    // Range of sorted keys starting with the prefix of a node, only needed while building
+    int[] rangeStart = new int[maxNodes];
+    int[] rangeEnd = new int[maxNodes];
+    int[] depth = new int[maxNodes];
+    rangeEnd[ROOT] = keys.length;
+
+    // Nodes are created in breadth-first order, so visiting them by increasing number is a breadth-first traversal
+    int nbNodes = 1;
+    for (int node = 0; node < nbNodes; node++) {
+      nodeFirstChild[node] = nbNodes;
+      nodeValues[node] = NONE;
+      int start = rangeStart[node];
+      int end = rangeEnd[node];
+      int d = depth[node];
+      // In sorted order the key equal to the node prefix, if any, comes first
+      if (start < end && keys[order[start]].length() == d) {
+        nodeValues[node] = keyValues[order[start]];
+        start++;
+      }
+      // Group the remaining keys by their next character, each group is one child
+      while (start < end) {
+        char c = keys[order[start]].charAt(d);
+        int groupEnd = start + 1;
+        while (groupEnd < end && keys[order[groupEnd]].charAt(d) == c) {
+          groupEnd++;
+        }
+        nodeLabels[nbNodes] = c;
+        rangeStart[nbNodes] = start;
+        rangeEnd[nbNodes] = groupEnd;
+        depth[nbNodes] = d + 1;
+        nbNodes++;
+        start = groupEnd;
+      }
+    }
+    nodeFirstChild[nbNodes] = nbNodes;
+
+    labels = Arrays.copyOf(nodeLabels, nbNodes);
+    firstChild = Arrays.copyOf(nodeFirstChild, nbNodes + 1);
+    values = Arrays.copyOf(nodeValues, nbNodes);
+  }
+
+  /**
+   * Return the child of node labelled c, or NONE.
+   */
+  int child(int node, char c) {
+    int low = firstChild[node];
+    int high = firstChild[node + 1] - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char label = labels[mid];
+      if (label < c) {
+        low = mid + 1;
+      } else if (label > c) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return NONE;
+  }
+
+  /**
+   * Follow the characters of a fragment from node.
+   * @return the node reached, or NONE if no lemma continues with this fragment.
+   */
+  int walk(int node, CharSequence fragment) {
+    for (int i = 0; i < fragment.length() && node != NONE; i++) {
+      node = child(node, fragment.charAt(i));
+    }
+    return node;
+  }
+
+  /**
+   * Return the value of the lemma ending at node, or NONE if the node is only a prefix.
+   */
+  int value(int node) {
+    return values[node];
+  }
+}
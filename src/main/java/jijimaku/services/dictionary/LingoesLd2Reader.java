@@ -0,0 +1,265 @@
+package jijimaku.services.dictionary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * Reader for Lingoes LD2 dictionary files(http://www.lingoes.net/en/dictionary/).
+ * The dictionary data is made of independent deflate blocks which are inflated in parallel.
+ * Words and definitions are then decoded one at a time from the inflated data, so that the caller can index them
+ * without building a map of the whole dictionary.
+ *
+ * <p>Inflated data layout(little endian):
+ * <pre>
+ *   index: one 10 bytes record per word, int wordPos, int definitionPos, byte flags, byte nbRefs
+ *          (the end of the word and of the definition are the positions of the next record)
+ *   words: for each word, int[nbRefs] referenced word numbers followed by the word text
+ *   definitions: XML definitions, the definitions of the referenced words are prepended to the word definition
+ * </pre>
+ * Based on the format description of the lingoes-extractor project.
+ */
+class LingoesLd2Reader {
+
+  private static final int HEADER_DATA_OFFSET_POSITION = 0x5C;
+  private static final int HEADER_SIZE = 0x60;
+  private static final int DICTIONARY_TYPE_WITH_INDEX = 3;
+  private static final int INDEX_RECORD_SIZE = 10;
+  // Number of words decoded to detect the encodings
+  private static final int ENCODING_TEST_WORDS = 10;
+  private static final Charset[] ENCODINGS = {
+      StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, StandardCharsets.UTF_16BE, Charset.forName("EUC-JP")
+  };
+
+  private final ByteBuffer inflated;
+  private final int wordsOffset;
+  private final int definitionsOffset;
+  private final int nbWords;
+  private final Charset wordEncoding;
+  private final Charset definitionEncoding;
+
+  /**
+   * Read and inflate an LD2 file.
+   */
+  LingoesLd2Reader(File ld2File) throws IOException {
+    ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(ld2File.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    int dataOffset = data.getInt(HEADER_DATA_OFFSET_POSITION) + HEADER_SIZE;
+    if (data.limit() <= dataOffset) {
+      throw new IOException("No dictionary data in LD2 file");
+    }
+    int dictionaryOffset = dataOffset;
+    if (data.getInt(dataOffset) != DICTIONARY_TYPE_WITH_INDEX) {
+      // Skip the information section
+      dictionaryOffset = data.getInt(dataOffset + 4) + dataOffset + 12;
+      if (data.limit() <= dictionaryOffset + 0x1C) {
+        throw new IOException("No dictionary data in LD2 file");
+      }
+    }
+
+    final int limit = data.getInt(dictionaryOffset + 4) + dictionaryOffset + 8;
+    int indexOffset = dictionaryOffset + 0x1C;
+    int blocksHeaderOffset = data.getInt(dictionaryOffset + 8) + indexOffset;
+    wordsOffset = data.getInt(dictionaryOffset + 12);
+    definitionsOffset = wordsOffset + data.getInt(dictionaryOffset + 16);
+
+    // Table of the end offsets of the deflate blocks, relative to the start of the compressed data
+    List<Integer> blockEnds = new ArrayList<>();
+    data.position(blocksHeaderOffset + 8);
+    int blockEnd = data.getInt();
+    blockEnds.add(blockEnd);
+    while (blockEnd + data.position() < limit) {
+      blockEnd = data.getInt();
+      blockEnds.add(blockEnd);
+    }
+    final int compressedOffset = data.position();
+
+    byte[][] blocks = IntStream.range(0, blockEnds.size()).parallel()
+        .mapToObj(i -> inflateBlock(data.array(), compressedOffset + (i == 0 ? 0 : blockEnds.get(i - 1)),
+            blockEnds.get(i) - (i == 0 ? 0 : blockEnds.get(i - 1))))
+        .toArray(byte[][]::new);
+    int inflatedLength = 0;
+    for (byte[] block : blocks) {
+      if (block == null) {
+        throw new IOException("Invalid compressed data in LD2 file");
+      }
+      inflatedLength += block.length;
+    }
+    byte[] inflatedBytes = new byte[inflatedLength];
+    int position = 0;
+    for (byte[] block : blocks) {
+      System.arraycopy(block, 0, inflatedBytes, position, block.length);
+      position += block.length;
+    }
+    inflated = ByteBuffer.wrap(inflatedBytes).order(ByteOrder.LITTLE_ENDIAN);
+    nbWords = wordsOffset / INDEX_RECORD_SIZE - 1;
+
+    Charset[] encodings = detectEncodings();
+    wordEncoding = encodings[0];
+    definitionEncoding = encodings[1];
+  }
+
+  /**
+   * Inflate one deflate block, return null if it is invalid.
+   */
+  private static byte[] inflateBlock(byte[] data, int offset, int length) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data, offset, length);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+      byte[] buffer = new byte[64 * 1024];
+      while (!inflater.finished()) {
+        int inflatedLength = inflater.inflate(buffer);
+        if (inflatedLength == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        out.write(buffer, 0, inflatedLength);
+      }
+      return out.toByteArray();
+    } catch (DataFormatException exc) {
+      return null;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Find the encodings of the words and of the definitions: the first ones that decode the first words without error.
+   */
+  private Charset[] detectEncodings() {
+    int nbTestWords = Math.min(nbWords, ENCODING_TEST_WORDS);
+    for (Charset wordCharset : ENCODINGS) {
+      for (Charset definitionCharset : ENCODINGS) {
+        try {
+          for (int i = 0; i < nbTestWords; i++) {
+            decode(wordCharset, wordBytes(i));
+            decodeDefinition(definitionCharset, i);
+          }
+          return new Charset[] {wordCharset, definitionCharset};
+        } catch (CharacterCodingException | RuntimeException exc) {
+          // Try the next encodings
+        }
+      }
+    }
+    return new Charset[] {ENCODINGS[0], ENCODINGS[0]};
+  }
+
+  /**
+   * Number of words in the dictionary.
+   */
+  int size() {
+    return nbWords;
+  }
+
+  /**
+   * Decode the word number i.
+   */
+  String getWord(int i) {
+    try {
+      return decode(wordEncoding, wordBytes(i));
+    } catch (CharacterCodingException exc) {
+      return "";
+    }
+  }
+
+  /**
+   * Decode the definition of the word number i, as plain text.
+   */
+  String getDefinition(int i) {
+    try {
+      return decodeDefinition(definitionEncoding, i);
+    } catch (CharacterCodingException exc) {
+      return "";
+    }
+  }
+
+  private ByteBuffer wordBytes(int i) {
+    int record = INDEX_RECORD_SIZE * i;
+    int start = wordsOffset + inflated.getInt(record) + 4 * (inflated.get(record + 9) & 0xFF);
+    int end = wordsOffset + inflated.getInt(record + INDEX_RECORD_SIZE);
+    return slice(start, end);
+  }
+
+  private String decodeDefinition(Charset charset, int i) throws CharacterCodingException {
+    int record = INDEX_RECORD_SIZE * i;
+    String definition = strip(decode(charset, definitionBytes(i)));
+    // Prepend the definitions of the referenced words
+    int nbRefs = inflated.get(record + 9) & 0xFF;
+    int refPosition = wordsOffset + inflated.getInt(record);
+    for (int r = 0; r < nbRefs; r++) {
+      String refDefinition = strip(decode(charset, definitionBytes(inflated.getInt(refPosition + 4 * r))));
+      definition = definition.isEmpty() ? refDefinition : refDefinition + ", " + definition;
+    }
+    return definition;
+  }
+
+  private ByteBuffer definitionBytes(int i) {
+    int record = INDEX_RECORD_SIZE * i;
+    return slice(definitionsOffset + inflated.getInt(record + 4), definitionsOffset + inflated.getInt(record + INDEX_RECORD_SIZE + 4));
+  }
+
+  private ByteBuffer slice(int start, int end) {
+    ByteBuffer bytes = inflated.duplicate();
+    bytes.limit(end).position(start);
+    return bytes;
+  }
+
+  /**
+   * Decode bytes, throw an exception if they are not valid in this charset.
+   */
+  private static String decode(Charset charset, ByteBuffer bytes) throws CharacterCodingException {
+    CharsetDecoder decoder = charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    CharBuffer chars = decoder.decode(bytes);
+    return chars.toString();
+  }
+
+  /**
+   * Extract the text of an XML definition.
+   */
+  private static String strip(String xml) {
+    String text = "";
+    int open = xml.indexOf("<![CDATA[");
+    if (open != -1) {
+      int end = xml.indexOf("]]>", open);
+      if (end != -1) {
+        text = xml.substring(open + "<![CDATA[".length(), end);
+      }
+    } else if ((open = xml.indexOf("<Ô")) != -1) {
+      int end = xml.indexOf("</Ô", open);
+      if (end != -1) {
+        open = xml.indexOf(">", open + 1);
+        text = xml.substring(open + 1, end);
+      }
+    } else {
+      // Keep the text between the tags
+      StringBuilder sb = new StringBuilder();
+      int end = 0;
+      open = xml.indexOf('<');
+      do {
+        if (open - end > 1) {
+          sb.append(xml, end + 1, open);
+        }
+        open = xml.indexOf('<', open + 1);
+        end = xml.indexOf('>', end + 1);
+      } while (open != -1 && end != -1);
+      text = sb.toString();
+    }
+    return text.replace('\t', ' ').replace('\n', ' ').replace('\u001e', ' ').replace('\u001f', ' ');
+  }
+}
@@ -0,0 +1,94 @@
+package jijimaku.services.dictionary;
+
+/**
+ * Walk several candidate keys of the same text(e.g. the canonical forms and the text form of the tokens)
+ * in a dictionary index at once, by priority order.
+ * Keys that are identical so far share a single lemma cursor, which is only copied when their fragments diverge:
+ * when all the keys are the same, which is the most common case, the index is walked only once.
+ * A cursor must only be used by one thread.
+ */
+public final class MultiKeyCursor {
+
+  private final LemmaCursor[] cursors;
+  // Index of the key whose cursor each key shares(itself if it has its own cursor), always lower or equal to the key
+  private final int[] owners;
+  private final int[] previousOwners;
+  private final boolean[] found;
+
+  public MultiKeyCursor(LemmaCursor cursor, int keyCount) {
+    cursors = new LemmaCursor[keyCount];
+    owners = new int[keyCount];
+    previousOwners = new int[keyCount];
+    found = new boolean[keyCount];
+    // All the keys start on the empty prefix
+    cursors[0] = cursor;
+    found[0] = true;
+  }
+
+  /**
+   * Append the same fragment to all the keys(e.g. a word separator).
+   * @return false if no lemma starts with any of the keys anymore.
+   */
+  public boolean advance(CharSequence fragment) {
+    boolean anyFound = false;
+    for (int k = 0; k < cursors.length; k++) {
+      if (owners[k] == k && found[k]) {
+        found[k] = cursors[k].advance(fragment);
+        anyFound |= found[k];
+      }
+    }
+    return anyFound;
+  }
+
+  /**
+   * Append a fragment to each key, fragments are given in the keys priority order.
+   * @return false if no lemma starts with any of the keys anymore.
+   */
+  public boolean advance(String... fragments) {
+    if (fragments.length != cursors.length) {
+      throw new IllegalArgumentException("Expected " + cursors.length + " fragments, got " + fragments.length);
+    }
+    // Keys whose fragment differs from the one of the key they share a cursor with get their own cursor,
+    // or share the cursor of a key with the same new fragment
+    System.arraycopy(owners, 0, previousOwners, 0, owners.length);
+    for (int k = 1; k < cursors.length; k++) {
+      int owner = previousOwners[k];
+      if (owner == k || fragments[k].equals(fragments[owner])) {
+        continue;
+      }
+      owners[k] = k;
+      for (int j = owner + 1; j < k; j++) {
+        if (previousOwners[j] == owner && owners[j] == j && fragments[j].equals(fragments[k])) {
+          owners[k] = j;
+          break;
+        }
+      }
+      if (owners[k] == k) {
+        found[k] = found[owner];
+        cursors[k] = found[owner] ? cursors[owner].copy() : null;
+      }
+    }
+
+    boolean anyFound = false;
+    for (int k = 0; k < cursors.length; k++) {
+      if (owners[k] == k && found[k]) {
+        found[k] = cursors[k].advance(fragments[k]);
+        anyFound |= found[k];
+      }
+    }
+    return anyFound;
+  }
+
+  /**
+   * Return a copy of the cursor of the first key, by priority order, that is equal to a lemma, or null if there is none.
+   * The entries are not read, so that the entries of a shorter match that is then extended are never decoded.
+   */
+  public LemmaCursor matchingCursor() {
+    for (int k = 0; k < cursors.length; k++) {
+      if (owners[k] == k && found[k] && cursors[k].hasEntries()) {
+        return cursors[k].copy();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,98 @@
+package jijimaku.services.dictionary;
+
+import java.util.List;
+
+
+/**
+ * Normalization of kana readings, so that a word written in kana can be found from the pronunciations of the
+ * dictionary entries: katakana are converted to hiragana, and the long vowel mark is replaced by the vowel
+ * it lengthens(ラーメン => らあめん, おかーさん => おかあさん).
+ * Pronunciations that are not only kana(romaji, IPA...) have no normalized reading and are not indexed.
+ */
+final class Readings {
+
+  private static final char FIRST_HIRAGANA = 'ぁ';
+  private static final char LAST_HIRAGANA = 'ゖ';
+  private static final char FIRST_KATAKANA = 'ァ';
+  private static final char LAST_KATAKANA = 'ヶ';
+  private static final char KATAKANA_ITERATION_MARK = 'ヽ';
+  private static final char KATAKANA_VOICED_ITERATION_MARK = 'ヾ';
+  private static final char HIRAGANA_ITERATION_MARK = 'ゝ';
+  private static final char HIRAGANA_VOICED_ITERATION_MARK = 'ゞ';
+  private static final int KATAKANA_TO_HIRAGANA = FIRST_KATAKANA - FIRST_HIRAGANA;
+  private static final char LONG_VOWEL_MARK = 'ー';
+  // Vowel of each hiragana from FIRST_HIRAGANA to LAST_HIRAGANA, or the long vowel mark itself if none(ん, っ)
+  private static final String VOWELS = "ああいいううええおおああいいううええおおああいいううええおおああいいーううええおおあいうえおあああいいいうううえええおおおあいうえおああううおおあいうえおああいえおーうあえ";
+
+  private Readings() {
+  }
+
+  /**
+   * Return the normalized reading of a kana text, or null if the text is empty or not only kana.
+   * @param previous the normalized character before the text(0 if none), to replace a leading long vowel mark
+   */
+  static String normalize(CharSequence text, char previous) {
+    if (text.length() == 0) {
+      return null;
+    }
+    char[] reading = new char[text.length()];
+    for (int i = 0; i < reading.length; i++) {
+      char c = text.charAt(i);
+      if (c >= FIRST_KATAKANA && c <= LAST_KATAKANA
+          || c == KATAKANA_ITERATION_MARK || c == KATAKANA_VOICED_ITERATION_MARK) {
+        c = (char) (c - KATAKANA_TO_HIRAGANA);
+      } else if (c == LONG_VOWEL_MARK) {
+        char before = i > 0 ? reading[i - 1] : previous;
+        if (before >= FIRST_HIRAGANA && before <= LAST_HIRAGANA) {
+          c = VOWELS.charAt(before - FIRST_HIRAGANA);
+        }
+      } else if (!(c >= FIRST_HIRAGANA && c <= LAST_HIRAGANA || c == HIRAGANA_ITERATION_MARK || c == HIRAGANA_VOICED_ITERATION_MARK)) {
+        return null;
+      }
+      reading[i] = c;
+    }
+    return new String(reading);
+  }
+
+  static String normalize(CharSequence text) {
+    return normalize(text, (char) 0);
+  }
+
+  /**
+   * Wrap a cursor over normalized readings so that it can be advanced with kana text as is.
+   */
+  static LemmaCursor normalizingCursor(LemmaCursor readingCursor) {
+    return normalizingCursor(readingCursor, (char) 0);
+  }
+
+  private static LemmaCursor normalizingCursor(LemmaCursor readingCursor, char lastChar) {
+    return new LemmaCursor() {
+      private char last = lastChar;
+
+      @Override
+      public boolean advance(CharSequence fragment) {
+        String reading = normalize(fragment, last);
+        if (reading == null) {
+          return false;
+        }
+        last = reading.charAt(reading.length() - 1);
+        return readingCursor.advance(reading);
+      }
+
+      @Override
+      public boolean hasEntries() {
+        return readingCursor.hasEntries();
+      }
+
+      @Override
+      public List<DictionaryEntry> entries() {
+        return readingCursor.entries();
+      }
+
+      @Override
+      public LemmaCursor copy() {
+        return normalizingCursor(readingCursor.copy(), last);
+      }
+    };
+  }
+}
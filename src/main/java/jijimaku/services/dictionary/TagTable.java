@@ -0,0 +1,125 @@
+package jijimaku.services.dictionary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Symbol table of the tags of a dictionary.
+ * Each distinct tag gets a small id, so that the tags of an entry are a bitset of a few longs instead of a HashSet,
+ * and checking an entry against a list of tags is a mask AND.
+ *
+ * <p>Tags are added by the single loading thread while the dictionary index is built,
+ * the table is read-only afterwards and can be shared by the annotation threads.
+ */
+public class TagTable {
+
+  private final List<String> names = new ArrayList<>();
+  private final Map<String, Integer> ids = new HashMap<>();
+
+  /**
+   * Return the id of a tag, adding it to the table if it is new.
+   */
+  int intern(String tag) {
+    Integer id = ids.get(tag);
+    if (id == null) {
+      id = names.size();
+      names.add(tag);
+      ids.put(tag, id);
+    }
+    return id;
+  }
+
+  /**
+   * Return the bitset of a set of tags, adding them to the table if they are new. Return null for no tags.
+   */
+  long[] internAll(Collection<String> tags) {
+    long[] bits = null;
+    if (tags != null) {
+      for (String tag : tags) {
+        bits = withTag(bits, intern(tag));
+      }
+    }
+    return bits;
+  }
+
+  /**
+   * Return the mask of the tags of the table among a list of tags, tags that are not in the table are ignored.
+   * The mask can be checked against entries with DictionaryEntry.hasAnyTag.
+   */
+  public long[] mask(Collection<String> tags) {
+    long[] mask = new long[0];
+    for (String tag : tags) {
+      Integer id = ids.get(tag);
+      if (id != null) {
+        mask = withTag(mask, id);
+      }
+    }
+    return mask;
+  }
+
+  /**
+   * Return the name of a tag id.
+   */
+  String name(int id) {
+    return names.get(id);
+  }
+
+  /**
+   * Return the tag names of a bitset, or null for no tags.
+   */
+  Set<String> names(long[] bits) {
+    if (bits == null) {
+      return null;
+    }
+    Set<String> tags = new HashSet<>();
+    for (int word = 0; word < bits.length; word++) {
+      long remaining = bits[word];
+      while (remaining != 0) {
+        tags.add(names.get(word * Long.SIZE + Long.numberOfTrailingZeros(remaining)));
+        remaining &= remaining - 1;
+      }
+    }
+    return tags;
+  }
+
+  /**
+   * Number of distinct tags.
+   */
+  public int size() {
+    return names.size();
+  }
+
+  /**
+   * Return a bitset with a tag added, the original bitset may be modified.
+   */
+  static long[] withTag(long[] bits, int id) {
+    int word = id / Long.SIZE;
+    if (bits == null || bits.length <= word) {
+      bits = bits == null ? new long[word + 1] : Arrays.copyOf(bits, word + 1);
+    }
+    bits[word] |= 1L << id;
+    return bits;
+  }
+
+  /**
+   * Return true if two bitsets have a tag in common.
+   */
+  static boolean intersects(long[] bits, long[] mask) {
+    if (bits == null) {
+      return false;
+    }
+    for (int word = Math.min(bits.length, mask.length) - 1; word >= 0; word--) {
+      if ((bits[word] & mask[word]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,196 @@
+package jijimaku.services.dictionary;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+/**
+ * Deduplicated storage of the dictionary texts(senses, pronunciations) as UTF-8 bytes in one large array.
+ * Dictionary texts are mostly ASCII so UTF-8 takes half the memory of Java Strings, without any per-String overhead,
+ * and the same text added several times(e.g. LD2 cross-references) is stored only once.
+ * Texts are referenced by their offset in the arena and decoded only when they are read.
+ *
+ * <p>An arena is filled by a single loading thread then frozen: it is read-only afterwards and can be shared
+ * by the annotation threads.
+ */
+class TextArena {
+
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+  private static final int INITIAL_SLOTS = 1024;
+
+  // Each text is stored as its byte length(varint) followed by its UTF-8 bytes
+  private byte[] data = new byte[INITIAL_CAPACITY];
+  private int length = 0;
+  // Open addressing table(linear probing) of text offsets + 1 used to deduplicate texts, null once frozen
+  private int[] slots = new int[INITIAL_SLOTS];
+  private int nbTexts = 0;
+
+  /**
+   * Read-only list of texts of an arena.
+   */
+  private static class TextList extends AbstractList<String> implements RandomAccess {
+    private final TextArena arena;
+    private final int[] offsets;
+
+    private TextList(TextArena arena, int[] offsets) {
+      this.arena = arena;
+      this.offsets = offsets;
+    }
+
+    @Override
+    public String get(int index) {
+      return arena.get(offsets[index]);
+    }
+
+    @Override
+    public int size() {
+      return offsets.length;
+    }
+  }
+
+  /**
+   * Add texts to the arena and return them as a list that decodes each text when it is read.
+   */
+  List<String> addAll(List<String> texts) {
+    int[] offsets = new int[texts.size()];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = add(texts.get(i));
+    }
+    return new TextList(this, offsets);
+  }
+
+  /**
+   * Add a text to the arena, or find the identical text already added. Return its offset.
+   */
+  int add(String text) {
+    if (slots == null) {
+      throw new IllegalStateException("Cannot add texts to a frozen arena");
+    }
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    int mask = slots.length - 1;
+    int slot = hash(bytes, 0, bytes.length) & mask;
+    while (slots[slot] != 0) {
+      int offset = slots[slot] - 1;
+      if (equalsAt(offset, bytes)) {
+        return offset;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    int offset = append(bytes);
+    slots[slot] = offset + 1;
+    nbTexts++;
+    // Keep the table at most half full so that probe sequences stay short
+    if (nbTexts * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    return offset;
+  }
+
+  /**
+   * Decode the text stored at an offset.
+   */
+  String get(int offset) {
+    int textLength = textLength(offset);
+    return new String(data, offset + lengthSize(textLength), textLength, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Release the unused capacity and the deduplication table, no text can be added afterwards.
+   */
+  void freeze() {
+    data = Arrays.copyOf(data, length);
+    slots = null;
+  }
+
+  private int append(byte[] bytes) {
+    ensureCapacity(length + 5 + bytes.length);
+    final int offset = length;
+    int textLength = bytes.length;
+    while (textLength >= 0x80) {
+      data[length++] = (byte) (textLength | 0x80);
+      textLength >>>= 7;
+    }
+    data[length++] = (byte) textLength;
+    System.arraycopy(bytes, 0, data, length, bytes.length);
+    length += bytes.length;
+    return offset;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > data.length) {
+      int newCapacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) data.length * 2, capacity));
+      if (newCapacity < capacity) {
+        throw new IllegalStateException("Dictionary texts do not fit in a text arena");
+      }
+      data = Arrays.copyOf(data, newCapacity);
+    }
+  }
+
+  /**
+   * Return true if the text stored at offset has the given bytes.
+   */
+  private boolean equalsAt(int offset, byte[] bytes) {
+    int textLength = textLength(offset);
+    if (textLength != bytes.length) {
+      return false;
+    }
+    int pos = offset + lengthSize(textLength);
+    for (int i = 0; i < textLength; i++) {
+      if (data[pos + i] != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rehash(int nbSlots) {
+    int[] newSlots = new int[nbSlots];
+    int mask = nbSlots - 1;
+    for (int slotValue : slots) {
+      if (slotValue == 0) {
+        continue;
+      }
+      int textLength = textLength(slotValue - 1);
+      int slot = hash(data, slotValue - 1 + lengthSize(textLength), textLength) & mask;
+      while (newSlots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      newSlots[slot] = slotValue;
+    }
+    slots = newSlots;
+  }
+
+  private int textLength(int offset) {
+    int textLength = 0;
+    int shift = 0;
+    int pos = offset;
+    byte b;
+    do {
+      b = data[pos++];
+      textLength |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return textLength;
+  }
+
+  private static int lengthSize(int textLength) {
+    int size = 1;
+    while (textLength >= 0x80) {
+      textLength >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static int hash(byte[] bytes, int from, int byteLength) {
+    int hash = 1;
+    for (int i = from; i < from + byteLength; i++) {
+      hash = 31 * hash + bytes[i];
+    }
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -13,6 +13,7 @@ import jijimaku.services.LanguageService.Language;
 /**
  * Parse a sentence into grammatical words.
  * This interface can be implemented by different classes to parse different languages
+ * Implementations must be thread-safe: the same parser is used to annotate several files in parallel.
  */
 public interface LangParser {
 
@@ -41,23 +42,36 @@ public interface LangParser {
 
   class TextToken {
 
+    public static final int NO_HEAD = -1;
+
     private final PosTag posTag;
     private final String textForm;      // as it appears in the parsed sentence
+    private final String lowerCaseTextForm;   // lowercased once here rather than on each dictionary look-up
     private final String firstCanonicalForm; // canonical/base form of a word, e.g. infinitive for verbs, etc.. (used in dictionary look-ups)
     private final String secondCanonicalForm; // canonical/base form of a word, e.g. infinitive for verbs, etc.. (used in dictionary look-ups)
+    private final int head;                   // index of the syntactic head in the tokens of the text, NO_HEAD for the root or if not parsed
+    private final String dependencyRelation;  // universal dependency relation to the head, null if not parsed
 
     public TextToken(PosTag posTag, String textForm, String firstCanonicalForm, String secondCanonicalForm) {
+      this(posTag, textForm, firstCanonicalForm, secondCanonicalForm, NO_HEAD, null);
+    }
+
+    public TextToken(PosTag posTag, String textForm, String firstCanonicalForm, String secondCanonicalForm,
+                     int head, String dependencyRelation) {
       if (textForm == null || textForm.isEmpty()) {
         throw new IllegalArgumentException("Cannot create a TextToken from an empty string.");
       }
       this.posTag = posTag;
       this.textForm = textForm;
+      this.lowerCaseTextForm = textForm.toLowerCase();
       this.firstCanonicalForm = firstCanonicalForm != null && !firstCanonicalForm.isEmpty()
           ? firstCanonicalForm
-          : textForm.toLowerCase();
+          : lowerCaseTextForm;
       this.secondCanonicalForm = secondCanonicalForm != null && !secondCanonicalForm.isEmpty()
           ? secondCanonicalForm
-          : textForm.toLowerCase();
+          : lowerCaseTextForm;
+      this.head = head;
+      this.dependencyRelation = dependencyRelation;
     }
 
     public PosTag getPartOfSpeech() {
@@ -68,6 +82,10 @@ public interface LangParser {
       return textForm;
     }
 
+    public String getLowerCaseTextForm() {
+      return lowerCaseTextForm;
+    }
+
     public String getFirstCanonicalForm() {
       return firstCanonicalForm;
     }
@@ -75,13 +93,39 @@ public interface LangParser {
     public String getSecondCanonicalForm() {
       return secondCanonicalForm;
     }
+
+    public int getHead() {
+      return head;
+    }
+
+    public String getDependencyRelation() {
+      return dependencyRelation;
+    }
   }
 
 
   default List<TextToken> parse(String text) {
     List<TextToken> tokens = this.syntaxicParse(text);
+    logParsingInfo(text, tokens);
+    return tokens;
+  }
+
+  /**
+   * Parse several texts, e.g. all the captions of a subtitle file.
+   * Return the tokens of each text, in the same order.
+   */
+  default List<List<TextToken>> parseAll(List<String> texts) {
+    List<List<TextToken>> allTokens = this.syntaxicParseAll(texts);
+    for (int i = 0; i < texts.size(); i++) {
+      logParsingInfo(texts.get(i), allTokens.get(i));
+    }
+    return allTokens;
+  }
 
-    // Log details on how the text was parsed for debugging
+  /**
+   * Log details on how the text was parsed for debugging.
+   */
+  default void logParsingInfo(String text, List<TextToken> tokens) {
     String parsedTokens = tokens.stream().map(TextToken::getTextForm).collect(Collectors.joining("|"));
     getLogger().debug("original: " + text);
     getLogger().debug("parsed: " + parsedTokens);
@@ -92,7 +136,6 @@ public interface LangParser {
         + textToken.getPartOfSpeech()).collect(Collectors.joining("\n"));
 
     getLogger().debug("parsing info: \n" + parsingInfo);
-    return tokens;
   }
 
   default String getWordSeparator() {
@@ -102,9 +145,19 @@ public interface LangParser {
   // Returned the language supported by the parser
   Language getLanguage();
 
+  // Identify the parser and its settings(model, user dictionary...): parse results are cached under this id,
+  // so it must change whenever the same text could be parsed differently.
+  // It includes the app version and a TOKEN_MAPPING_VERSION since the conversion to TextTokens(e.g. POS tags) is cached too
+  String getParserId();
+
   Logger getLogger();
 
   // Ideally this should be private but private interface methods are only supported in Java 9
   List<TextToken> syntaxicParse(String text);
+
+  // Parsers with a per-call overhead(e.g. native calls) can override this to parse all the texts in one pass
+  default List<List<TextToken>> syntaxicParseAll(List<String> texts) {
+    return texts.stream().map(this::syntaxicParse).collect(Collectors.toList());
+  }
 }
 
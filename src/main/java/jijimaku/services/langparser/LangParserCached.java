@@ -0,0 +1,401 @@
+package jijimaku.services.langparser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jijimaku.services.LanguageService.Language;
+import jijimaku.utils.FileManager;
+
+
+/**
+ * Parser decorator that caches the results of another parser.
+ * Subtitles repeat a lot of lines(series openings and endings, short replies...), so when annotating a whole series
+ * most captions were already parsed before. Results are kept in a bounded in-memory LRU shared by all
+ * the annotation threads, and appended to a file in the cache directory so that they survive restarts.
+ * The cache file is specific to the parser id: a different model or user dictionary starts a new cache.
+ * The file is locked while it is used, a second process using the same parser only caches results in memory.
+ * It is read and written through a RandomAccessFile rather than a FileChannel: an interrupted thread(e.g. when
+ * the annotation is cancelled) would close a FileChannel, and with it the cache for all the other threads.
+ */
+public class LangParserCached implements LangParser {
+  private static final Logger LOGGER;
+
+  static {
+    System.setProperty("logDir", FileManager.getLogsDirectory());
+    LOGGER = LogManager.getLogger();
+  }
+
+  private static final byte[] MAGIC = "JIJIPARS".getBytes(StandardCharsets.US_ASCII);
+  private static final int FORMAT_VERSION = 4;
+  private static final String CACHE_FILE_EXT = ".parsecache";
+  // Stop appending to the cache file past this size
+  private static final long MAX_CACHE_FILE_SIZE = 256L * 1024 * 1024;
+  // Texts are stored with writeUTF, which is limited to 64KB
+  private static final int MAX_TEXT_LENGTH = 16 * 1024;
+
+  private final LangParser parser;
+  private final Map<String, List<TextToken>> memoryCache;
+  // Offset of each record in the cache file, by text hash(the text is checked when the record is read)
+  private final Map<Long, Long> diskOffsets = new ConcurrentHashMap<>();
+  // Reads and writes synchronize on it since they move the file pointer
+  private final RandomAccessFile diskFile;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Constructor.
+   * @param parser the parser whose results are cached
+   * @param memoryCacheSize maximum number of parse results kept in memory
+   */
+  public LangParserCached(LangParser parser, int memoryCacheSize) {
+    this(parser, memoryCacheSize, getCacheFile(parser.getParserId()));
+  }
+
+  LangParserCached(LangParser parser, int memoryCacheSize, Path cacheFile) {
+    this.parser = parser;
+    memoryCache = new LinkedHashMap<String, List<TextToken>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, List<TextToken>> eldest) {
+        return size() > memoryCacheSize;
+      }
+    };
+    diskFile = openCacheFile(cacheFile, parser.getParserId());
+  }
+
+  private static Path getCacheFile(String parserId) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(parserId.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hash = new StringBuilder();
+      for (int i = 0; i < 8; i++) {
+        hash.append(String.format("%02x", digest[i]));
+      }
+      return Paths.get(FileManager.getCacheDirectory() + "/parse-" + hash + CACHE_FILE_EXT);
+    } catch (NoSuchAlgorithmException exc) {
+      throw new IllegalStateException(exc);
+    }
+  }
+
+  /**
+   * 64 bits FNV-1a hash of a text.
+   */
+  private static long textHash(String text) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < text.length(); i++) {
+      hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * Open the cache file and index its records, or create it.
+   * @return the open file, or null if the disk cache cannot be used(results are then only cached in memory).
+   */
+  private RandomAccessFile openCacheFile(Path cacheFile, String parserId) {
+    RandomAccessFile file = null;
+    try {
+      Files.createDirectories(cacheFile.getParent());
+      file = new RandomAccessFile(cacheFile.toFile(), "rw");
+      // Another process(or parser of this process) using the file would be truncating or appending records at the same time
+      if (!tryLock(file)) {
+        LOGGER.info("The parse cache file {} is in use, parse results will only be cached in memory", cacheFile.getFileName());
+        file.close();
+        return null;
+      }
+      long validSize = file.length() == 0 ? 0 : indexCacheFile(file, parserId);
+      if (validSize == 0) {
+        // New file, or not a valid cache for this parser: start over
+        file.setLength(0);
+        file.seek(0);
+        file.write(getHeader(parserId));
+        diskOffsets.clear();
+      } else if (validSize < file.length()) {
+        // Remove the incomplete record written during a crash
+        file.setLength(validSize);
+      }
+      LOGGER.debug("Parse cache {} contains {} captions", cacheFile.getFileName(), diskOffsets.size());
+      return file;
+    } catch (IOException exc) {
+      LOGGER.debug(exc);
+      LOGGER.warn("Cannot use the parse cache file {}, parse results will not be saved", cacheFile);
+      if (file != null) {
+        try {
+          file.close();
+        } catch (IOException closeExc) {
+          LOGGER.debug(closeExc);
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Lock the whole cache file for this parser, the lock is released when the file is closed.
+   * The channel is only used to take the lock, no I/O goes through it.
+   * @return false if the file is already locked.
+   */
+  private static boolean tryLock(RandomAccessFile file) throws IOException {
+    try {
+      return file.getChannel().tryLock() != null;
+    } catch (OverlappingFileLockException exc) {
+      // Locked by another channel of this JVM
+      return false;
+    }
+  }
+
+  /**
+   * Return the header of the cache file for a parser.
+   */
+  private static byte[] getHeader(String parserId) throws IOException {
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(header);
+    out.write(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeUTF(parserId);
+    return header.toByteArray();
+  }
+
+  /**
+   * Read all the records of a cache file to fill diskOffsets.
+   * @return the size of the valid part of the file, or 0 if it is not a cache file for this parser.
+   */
+  private long indexCacheFile(RandomAccessFile file, String parserId) throws IOException {
+    file.seek(0);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new InputStream() {
+      @Override
+      public int read() throws IOException {
+        return file.read();
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+        return file.read(bytes, offset, length);
+      }
+    }));
+    byte[] expectedHeader = getHeader(parserId);
+    byte[] header = new byte[expectedHeader.length];
+    try {
+      in.readFully(header);
+    } catch (EOFException exc) {
+      return 0;
+    }
+    if (!Arrays.equals(header, expectedHeader)) {
+      return 0;
+    }
+
+    long position = header.length;
+    try {
+      while (true) {
+        int recordLength = in.readInt();
+        if (recordLength < 0 || position + 4 + recordLength > file.length()) {
+          return position;
+        }
+        byte[] record = new byte[recordLength];
+        in.readFully(record);
+        String text = new DataInputStream(new ByteArrayInputStream(record)).readUTF();
+        diskOffsets.put(textHash(text), position);
+        position += 4 + recordLength;
+      }
+    } catch (EOFException exc) {
+      return position;
+    }
+  }
+
+  /**
+   * Return the cached parse result of a text from the cache file, or null.
+   */
+  private List<TextToken> readFromDisk(String text) {
+    Long offset = diskOffsets.get(textHash(text));
+    if (offset == null) {
+      return null;
+    }
+    try {
+      byte[] record;
+      synchronized (diskFile) {
+        diskFile.seek(offset);
+        record = new byte[diskFile.readInt()];
+        diskFile.readFully(record);
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+      if (!in.readUTF().equals(text)) {
+        // Hash collision
+        return null;
+      }
+      int nbTokens = in.readInt();
+      List<TextToken> tokens = new ArrayList<>(nbTokens);
+      for (int i = 0; i < nbTokens; i++) {
+        PosTag pos = PosTag.values()[in.readByte()];
+        String textForm = in.readUTF();
+        String firstCanonicalForm = in.readUTF();
+        String secondCanonicalForm = in.readUTF();
+        int head = in.readInt();
+        String dependencyRelation = in.readUTF();
+        tokens.add(new TextToken(pos, textForm, firstCanonicalForm, secondCanonicalForm,
+            head, dependencyRelation.isEmpty() ? null : dependencyRelation));
+      }
+      return Collections.unmodifiableList(tokens);
+    } catch (IOException | RuntimeException exc) {
+      LOGGER.debug("Invalid parse cache record for {}", text, exc);
+      return null;
+    }
+  }
+
+  /**
+   * Append a parse result to the cache file.
+   */
+  private void writeToDisk(String text, List<TextToken> tokens) {
+    try {
+      ByteArrayOutputStream record = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(record);
+      out.writeInt(0);
+      out.writeUTF(text);
+      out.writeInt(tokens.size());
+      for (TextToken token : tokens) {
+        out.writeByte(token.getPartOfSpeech().ordinal());
+        out.writeUTF(token.getTextForm());
+        out.writeUTF(token.getFirstCanonicalForm());
+        out.writeUTF(token.getSecondCanonicalForm());
+        out.writeInt(token.getHead());
+        out.writeUTF(token.getDependencyRelation() == null ? "" : token.getDependencyRelation());
+      }
+      byte[] bytes = record.toByteArray();
+      ByteBuffer.wrap(bytes).putInt(0, bytes.length - 4);
+
+      synchronized (diskFile) {
+        long offset = diskFile.length();
+        if (offset + bytes.length > MAX_CACHE_FILE_SIZE) {
+          return;
+        }
+        diskFile.seek(offset);
+        diskFile.write(bytes);
+        diskOffsets.put(textHash(text), offset);
+      }
+    } catch (IOException exc) {
+      LOGGER.debug("Could not write parse cache record for {}", text, exc);
+    }
+  }
+
+  /**
+   * Return the cached parse result of a text from memory or disk, or null.
+   */
+  private List<TextToken> getCached(String text) {
+    List<TextToken> tokens;
+    synchronized (memoryCache) {
+      tokens = memoryCache.get(text);
+    }
+    if (tokens != null) {
+      memoryHits.incrementAndGet();
+      return tokens;
+    }
+
+    tokens = diskFile == null ? null : readFromDisk(text);
+    if (tokens != null) {
+      diskHits.incrementAndGet();
+      synchronized (memoryCache) {
+        memoryCache.put(text, tokens);
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Add a new parse result to the cache.
+   * @return the cached tokens list
+   */
+  private List<TextToken> putCached(String text, List<TextToken> parsedTokens) {
+    misses.incrementAndGet();
+    List<TextToken> tokens = Collections.unmodifiableList(new ArrayList<>(parsedTokens));
+    if (diskFile != null && text.length() <= MAX_TEXT_LENGTH) {
+      writeToDisk(text, tokens);
+    }
+    synchronized (memoryCache) {
+      memoryCache.put(text, tokens);
+    }
+    return tokens;
+  }
+
+  @Override
+  public List<TextToken> syntaxicParse(String text) {
+    List<TextToken> tokens = getCached(text);
+    return tokens != null ? tokens : putCached(text, parser.syntaxicParse(text));
+  }
+
+  /**
+   * Parse the texts that are not in the cache in one batch(each distinct text only once).
+   */
+  @Override
+  public List<List<TextToken>> syntaxicParseAll(List<String> texts) {
+    List<List<TextToken>> allTokens = new ArrayList<>(texts.size());
+    Map<String, List<Integer>> missing = new LinkedHashMap<>();
+    for (int i = 0; i < texts.size(); i++) {
+      List<TextToken> tokens = missing.containsKey(texts.get(i)) ? null : getCached(texts.get(i));
+      if (tokens == null) {
+        missing.computeIfAbsent(texts.get(i), k -> new ArrayList<>()).add(i);
+      }
+      allTokens.add(tokens);
+    }
+    if (!missing.isEmpty()) {
+      List<String> missingTexts = new ArrayList<>(missing.keySet());
+      List<List<TextToken>> parsed = parser.syntaxicParseAll(missingTexts);
+      for (int i = 0; i < missingTexts.size(); i++) {
+        List<TextToken> tokens = putCached(missingTexts.get(i), parsed.get(i));
+        for (int textIdx : missing.get(missingTexts.get(i))) {
+          allTokens.set(textIdx, tokens);
+        }
+      }
+    }
+    return allTokens;
+  }
+
+  /**
+   * Return a summary of the cache hits and misses since the parser was created.
+   */
+  public String getStatistics() {
+    return String.format("Parse cache: %d captions reused from memory, %d from disk, %d parsed",
+        memoryHits.get(), diskHits.get(), misses.get());
+  }
+
+  @Override
+  public String getWordSeparator() {
+    return parser.getWordSeparator();
+  }
+
+  public Language getLanguage() {
+    return parser.getLanguage();
+  }
+
+  public String getParserId() {
+    return parser.getParserId();
+  }
+
+  public Logger getLogger() {
+    return parser.getLogger();
+  }
+}
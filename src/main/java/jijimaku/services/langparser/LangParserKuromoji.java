@@ -44,9 +44,18 @@ public class LangParserKuromoji implements LangParser {
       "と", "か"
   );
 
+  // Bump when getTokenPosTag or the token forms change, cached parse results are then discarded
+  private static final int TOKEN_MAPPING_VERSION = 1;
+
   private Tokenizer tokenizer;
+  private final String parserId;
 
   public LangParserKuromoji(AppConfig config) {
+    Map<String,String> configProperNouns = config.getProperNouns();
+    String kuromojiVersion = Tokenizer.class.getPackage().getImplementationVersion();
+    parserId = "kuromoji-unidic" + (kuromojiVersion != null ? ":" + kuromojiVersion : "")
+        + ":" + (configProperNouns == null ? 0 : configProperNouns.hashCode())
+        + ":jijimaku-" + FileManager.getAppVersion() + ":" + TOKEN_MAPPING_VERSION;
 
     try {
       // Use YAML "properNouns" option to indicate a custom dict of proper nouns with their pronunciation
@@ -182,6 +191,10 @@ public class LangParserKuromoji implements LangParser {
     return Language.JAPANESE;
   }
 
+  public String getParserId() {
+    return parserId;
+  }
+
   public Logger getLogger() {
     return LOGGER;
   }
@@ -1,18 +1,24 @@
 package jijimaku.services.langparser;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import jijimaku.AppConfig;
 import jijimaku.errors.UnexpectedCriticalError;
 import jijimaku.services.LanguageService.Language;
 import jijimaku.utils.FileManager;
@@ -39,12 +45,42 @@ public class LangParserUdpipe implements LangParser {
 
   private static final String MODEL_EXT = ".udpipe";
   private static final int SEARCH_MODEL_MAX_DEPTH = 3;
+  // Bump when the conversion of the UDPipe output to TextTokens changes, cached parse results are then discarded
+  private static final int TOKEN_MAPPING_VERSION = 1;
 
-  private Model model;
-  private InputFormat tokenizer;
-  private Language language;
+  private final Language language;
+  private final String modelFile;
+  private final String parserId;
+  private final Model model;
+  private final boolean sharedModel;
+  private final boolean dependencyParse;
+  private final int poolSize;
+  // Idle parsing contexts, new ones are created on demand up to poolSize
+  private final BlockingQueue<ParseContext> idleContexts = new LinkedBlockingQueue<>();
+  // Contexts created or being created, guarded by this
+  private int nbContexts = 0;
 
-  public LangParserUdpipe(Language language) {
+  /**
+   * A tokenizer and the model used to tag and parse its sentences, used by one thread at a time.
+   * The tokenizer keeps the text being split so it cannot be shared, but a model can tag and parse
+   * from several threads: contexts share the same model unless the udpipeSharedModel option is disabled.
+   */
+  private static class ParseContext {
+    private final Model model;
+    private final InputFormat tokenizer;
+
+    private ParseContext(Model model) {
+      this.model = model;
+      this.tokenizer = model.newTokenizer(Model.getDEFAULT());
+    }
+  }
+
+  /**
+   * Constructor.
+   * @param dependencyParse compute the syntactic head and dependency relation of the tokens,
+   *                        otherwise only tokenize and tag which is much faster
+   */
+  public LangParserUdpipe(Language language, AppConfig config, boolean dependencyParse) {
     String udpipeNativeLibPath = getUdPipeNativeLibPath();
     try {
       udpipe_java.setLibraryPath(udpipeNativeLibPath);
@@ -54,9 +90,21 @@ public class LangParserUdpipe implements LangParser {
       throw new UnexpectedCriticalError();
     }
     this.language = language;
-    model = getUdpipeModel();
-    tokenizer = model.newTokenizer(Model.getDEFAULT());
-    LOGGER.debug("Parsing using UDPipe for language " + language.toString());
+    modelFile = getUdpipeModelFile();
+    model = loadUdpipeModel(modelFile);
+    this.dependencyParse = dependencyParse;
+    parserId = getModelId(modelFile) + (dependencyParse ? ":parse" : ":tag")
+        + ":jijimaku-" + FileManager.getAppVersion() + ":" + TOKEN_MAPPING_VERSION;
+    sharedModel = config.getUdpipeSharedModel();
+    poolSize = config.getUdpipePoolSize();
+    idleContexts.add(new ParseContext(model));
+    nbContexts = 1;
+
+    // The model lives in native memory, its file size is a good estimate of the memory it uses
+    long modelSizeMb = new File(modelFile).length() / (1024 * 1024);
+    LOGGER.debug("Parsing using UDPipe for language {}, dependency parsing is {}", language, dependencyParse ? "enabled" : "disabled");
+    LOGGER.info("UDPipe can parse {} captions in parallel using {} model copies of about {} MB each",
+        poolSize, sharedModel ? 1 : poolSize, modelSizeMb);
   }
 
   private String getUdPipeNativeLibPath() {
@@ -75,9 +123,8 @@ public class LangParserUdpipe implements LangParser {
     }
   }
 
-  private Model getUdpipeModel() {
+  private String getUdpipeModelFile() {
     // Look in app directory for a udpipe model file that matches the dictionary language
-    String modelFile;
     try (Stream<Path> stream = Files.walk(Paths.get(FileManager.getAppDirectory()), SEARCH_MODEL_MAX_DEPTH)) {
       List<String> models = stream
           .filter(path -> path.getFileName().toString().endsWith(MODEL_EXT)
@@ -101,14 +148,16 @@ public class LangParserUdpipe implements LangParser {
             models.size(), language.toString(), allModels);
       }
 
-      modelFile = models.get(0);
       LOGGER.debug("Using udpipe model file " + models.get(0));
+      return models.get(0);
     } catch (IOException exc) {
       LOGGER.debug(exc);
       LOGGER.error("Error while searching for a parser model file '{}'", MODEL_EXT);
       throw new UnexpectedCriticalError();
     }
+  }
 
+  private Model loadUdpipeModel(String modelFile) {
     Model udpipeModel = Model.load(modelFile);
     if (udpipeModel == null) {
       LOGGER.error("Cannot load parser model from file '{}'", modelFile);
@@ -117,10 +166,64 @@ public class LangParserUdpipe implements LangParser {
     return udpipeModel;
   }
 
+  /**
+   * Identify a model file by its name, size and modification time.
+   */
+  private String getModelId(String modelFile) {
+    try {
+      Path modelPath = Paths.get(modelFile);
+      return "udpipe:" + modelPath.getFileName() + ":" + Files.size(modelPath) + ":" + Files.getLastModifiedTime(modelPath).toMillis();
+    } catch (IOException exc) {
+      LOGGER.debug(exc);
+      LOGGER.error("Problem reading parser model file '{}'", modelFile);
+      throw new UnexpectedCriticalError();
+    }
+  }
+
+  /**
+   * Take an idle parsing context, create a new one if the pool is not full, or wait for one.
+   * The slot of a new context is reserved under the lock, but its model copy(which can take seconds) is loaded outside of it
+   * so that the other threads can still take the idle contexts meanwhile.
+   */
+  private ParseContext acquireContext() {
+    ParseContext context = idleContexts.poll();
+    if (context != null) {
+      return context;
+    }
+    boolean reserved;
+    synchronized (this) {
+      reserved = nbContexts < poolSize;
+      if (reserved) {
+        nbContexts++;
+      }
+    }
+    if (reserved) {
+      boolean created = false;
+      try {
+        context = new ParseContext(sharedModel ? model : loadUdpipeModel(modelFile));
+        created = true;
+        return context;
+      } finally {
+        if (!created) {
+          // Give the slot back so that another thread can try again
+          synchronized (this) {
+            nbContexts--;
+          }
+        }
+      }
+    }
+    try {
+      return idleContexts.take();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for a UDPipe parser");
+    }
+  }
+
   /**
    * Use the UDPipe API to parse sentences in a text.
    */
-  private List<Sentence> parseSentences(String text) {
+  private List<Sentence> parseSentences(InputFormat tokenizer, String text) {
     tokenizer.setText(text);
     List<Sentence> sentences = new ArrayList<>();
     Sentence sentence = new Sentence();
@@ -141,56 +244,150 @@ public class LangParserUdpipe implements LangParser {
    */
   @Override
   public List<TextToken> syntaxicParse(String text) {
+    ParseContext context = acquireContext();
+    try {
+      return syntaxicParse(context, text);
+    } finally {
+      idleContexts.add(context);
+    }
+  }
+
+  private List<TextToken> syntaxicParse(ParseContext context, String text) {
     ProcessingError error = new ProcessingError();
     List<TextToken> tokens = new ArrayList<>();
-    for (Sentence s : parseSentences(text)) {
+    for (Sentence s : parseSentences(context.tokenizer, text)) {
+      addSentenceTokens(context, s, text, error, tokens);
+    }
+    return tokens;
+  }
 
-      model.tag(s, Model.getDEFAULT(), error);
-      if (error.occurred()) {
-        LOGGER.warn("UDPipe returned an error while tagging {}: {}", text, error.getMessage());
-        continue;
-      }
-      model.parse(s, Model.getDEFAULT(), error);
-      if (error.occurred()) {
-        LOGGER.warn("UDPipe returned an error while parsing {}: {}", text, error.getMessage());
-        continue;
+  /**
+   * Parse all the texts in one pass of the tokenizer: each text is a paragraph of one document,
+   * so the sentences of a text are the sentences between two paragraph starts.
+   * If the sentences cannot be matched with the texts, fall back to parsing each text separately.
+   */
+  @Override
+  public List<List<TextToken>> syntaxicParseAll(List<String> texts) {
+    List<List<TextToken>> allTokens = new ArrayList<>(texts.size());
+    // Blank texts have no sentence, they are not part of the document
+    List<Integer> paragraphTexts = new ArrayList<>();
+    StringBuilder document = new StringBuilder();
+    for (int i = 0; i < texts.size(); i++) {
+      allTokens.add(new ArrayList<>());
+      String text = texts.get(i).trim();
+      if (!text.isEmpty()) {
+        // An empty line is a paragraph boundary, so there must not be any inside a text
+        document.append(text.replaceAll("\\s*\\n\\s*", "\n")).append("\n\n");
+        paragraphTexts.add(i);
       }
+    }
+    if (paragraphTexts.isEmpty()) {
+      return allTokens;
+    }
 
-      Words words = s.getWords();
-      for (int i = 1; i < words.size(); i++) {
-        Word w = words.get(i);
-
-        String writtenForm = w.getForm();
-        if (writtenForm == null || writtenForm.isEmpty()) {
-          LOGGER.warn("UDPipe returned an invalid or empty word while parsing {}", text);
-          continue;
+    ParseContext context = acquireContext();
+    try {
+      context.tokenizer.setText(document.toString());
+      ProcessingError error = new ProcessingError();
+      Sentence sentence = new Sentence();
+      int paragraph = -1;
+      while (context.tokenizer.nextSentence(sentence, error)) {
+        if (paragraph < 0 || sentence.getNewPar()) {
+          paragraph++;
         }
-        PosTag pos;
-        try {
-          pos = PosTag.valueOf(w.getUpostag());
-        } catch (IllegalArgumentException exc) {
-          LOGGER.warn("UDPipe returned an invalid POS tag for word {}", writtenForm);
-          continue;
+        if (paragraph >= paragraphTexts.size()) {
+          break;
         }
+        int textIdx = paragraphTexts.get(paragraph);
+        addSentenceTokens(context, sentence, texts.get(textIdx), error, allTokens.get(textIdx));
+        sentence = new Sentence();
+      }
 
-        String firstCanonicalForm = w.getLemma();
-        if (firstCanonicalForm == null || firstCanonicalForm.isEmpty()) {
-          LOGGER.warn("UDPipe returned an invalid lemma for word {}", writtenForm);
-          firstCanonicalForm = null;
-        } else if (firstCanonicalForm.equals(writtenForm)) {
-          firstCanonicalForm = null;
+      if (error.occurred() || paragraph != paragraphTexts.size() - 1) {
+        LOGGER.debug("UDPipe sentences do not match the {} texts, parse them one by one", paragraphTexts.size());
+        for (int textIdx : paragraphTexts) {
+          allTokens.set(textIdx, syntaxicParse(context, texts.get(textIdx)));
         }
+      }
+    } finally {
+      idleContexts.add(context);
+    }
+    return allTokens;
+  }
+
+  /**
+   * Tag a sentence, parse its dependencies if enabled, and add its words to tokens as TextToken.
+   */
+  private void addSentenceTokens(ParseContext context, Sentence s, String text, ProcessingError error, List<TextToken> tokens) {
+    context.model.tag(s, Model.getDEFAULT(), error);
+    if (error.occurred()) {
+      LOGGER.warn("UDPipe returned an error while tagging {}: {}", text, error.getMessage());
+      return;
+    }
+    if (dependencyParse) {
+      context.model.parse(s, Model.getDEFAULT(), error);
+      if (error.occurred()) {
+        LOGGER.warn("UDPipe returned an error while parsing {}: {}", text, error.getMessage());
+        return;
+      }
+    }
+
+    Words words = s.getWords();
+    List<TextToken> sentenceTokens = new ArrayList<>();
+    List<Word> sentenceWords = new ArrayList<>();
+    // Index in tokens of each word of the sentence(word 0 is the root)
+    int[] tokenIndexes = new int[(int) words.size()];
+    Arrays.fill(tokenIndexes, TextToken.NO_HEAD);
+    for (int i = 1; i < words.size(); i++) {
+      Word w = words.get(i);
 
-        tokens.add(new TextToken(pos, writtenForm, firstCanonicalForm, null));
+      String writtenForm = w.getForm();
+      if (writtenForm == null || writtenForm.isEmpty()) {
+        LOGGER.warn("UDPipe returned an invalid or empty word while parsing {}", text);
+        continue;
+      }
+      PosTag pos;
+      try {
+        pos = PosTag.valueOf(w.getUpostag());
+      } catch (IllegalArgumentException exc) {
+        LOGGER.warn("UDPipe returned an invalid POS tag for word {}", writtenForm);
+        continue;
       }
+
+      String firstCanonicalForm = w.getLemma();
+      if (firstCanonicalForm == null || firstCanonicalForm.isEmpty()) {
+        LOGGER.warn("UDPipe returned an invalid lemma for word {}", writtenForm);
+        firstCanonicalForm = null;
+      } else if (firstCanonicalForm.equals(writtenForm)) {
+        firstCanonicalForm = null;
+      }
+
+      tokenIndexes[i] = tokens.size() + sentenceTokens.size();
+      sentenceTokens.add(new TextToken(pos, writtenForm, firstCanonicalForm, null));
+      sentenceWords.add(w);
+    }
+
+    if (!dependencyParse) {
+      tokens.addAll(sentenceTokens);
+      return;
+    }
+    for (int i = 0; i < sentenceTokens.size(); i++) {
+      TextToken t = sentenceTokens.get(i);
+      Word w = sentenceWords.get(i);
+      int head = w.getHead() > 0 && w.getHead() < tokenIndexes.length ? tokenIndexes[w.getHead()] : TextToken.NO_HEAD;
+      tokens.add(new TextToken(t.getPartOfSpeech(), t.getTextForm(), t.getFirstCanonicalForm(), t.getSecondCanonicalForm(),
+          head, w.getDeprel()));
     }
-    return tokens;
   }
 
   public Language getLanguage() {
     return language;
   }
 
+  public String getParserId() {
+    return parserId;
+  }
+
   public Logger getLogger() {
     return LOGGER;
   }
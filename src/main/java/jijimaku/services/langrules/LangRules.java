@@ -2,7 +2,11 @@ package jijimaku.services.langrules;
 
 import java.util.List;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import jijimaku.models.DictionaryMatch;
+import jijimaku.services.LanguageService.Language;
 import jijimaku.services.langparser.LangParser.TextToken;
 
 /**
@@ -10,6 +14,27 @@ import jijimaku.services.langparser.LangParser.TextToken;
  */
 public interface LangRules {
 
+  /**
+   * Instantiate the class for language-specific rules if available, e.g. LangRulesJapanese.
+   * Return null if there are no specific rules for this language.
+   */
+  static LangRules forLanguage(Language language) {
+    Logger logger = LogManager.getLogger(LangRules.class);
+    String languageName = language.toString();
+    try {
+      Class<?> cls = Class.forName("jijimaku.services.langrules.LangRules"
+          + languageName.substring(0, 1).toUpperCase() + languageName.substring(1).toLowerCase());
+      LangRules rules = (LangRules) cls.newInstance();
+      logger.debug("Using " + languageName + " specific annotation rules");
+      return rules;
+    } catch (ClassNotFoundException exc) {
+      logger.debug("No specific annotation rules found for language " + languageName);
+    } catch (IllegalAccessException | InstantiationException exc) {
+      logger.error("Could not instantiate LangRules class for language " + languageName);
+    }
+    return null;
+  }
+
   /**
    * Filter tokens before searching for a dictionary match.
    */
@@ -24,4 +49,12 @@ public interface LangRules {
    * Return true if a DictionaryMatch should be ignored for this language.
    */
   boolean isIgnoredMatch(DictionaryMatch match, List<String> ignoreTags);
+
+  /**
+   * Return true if the rules use the syntactic head and dependency relation of the tokens.
+   * The dependency parsing is the slowest step of the UDPipe parser so it is skipped otherwise.
+   */
+  default boolean requiresDependencyParse() {
+    return false;
+  }
 }
@@ -0,0 +1,86 @@
+package jijimaku.utils;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.regex.Pattern;
+
+import jijimaku.models.Caption;
+
+
+/**
+ * Write an ASS subtitle file incrementally: the header and the styles when it is created, then one dialogue event
+ * per caption as the captions are annotated, so that the annotated file is never held in memory.
+ * See http://docs.aegisub.org/3.2/ASS_Tags/ and the ASS specification for the format.
+ */
+public class AssWriter implements Closeable, Flushable {
+
+  private static final String STYLES_SECTION = "[V4+ Styles]";
+  private static final String EVENTS_FORMAT = "Format: Layer, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text";
+  private static final Pattern HTML_TAG_RE = Pattern.compile("<[^>]*>");
+  private static final Pattern NEWLINE_RE = Pattern.compile("\\r?\\n");
+
+  private final BufferedWriter out;
+
+  /**
+   * Write the header of the file.
+   * @param styles the styles section in ASS format(see AppConfig DEFAULT_ASS_STYLES for an example)
+   */
+  public AssWriter(Writer out, String title, String styles) throws IOException {
+    this.out = out instanceof BufferedWriter ? (BufferedWriter) out : new BufferedWriter(out);
+    writeLine("[Script Info]");
+    writeLine("Title: " + title);
+    writeLine("Original Script: Unknown");
+    writeLine("; " + SubtitleFile.JIJIMAKU_SIGNATURE);
+    writeLine("Script Type: V4.00+");
+    writeLine("Collisions: Normal");
+    writeLine("Timer: 100,0000");
+    writeLine("WrapStyle: 1");
+    writeLine("");
+    if (!styles.trim().startsWith(STYLES_SECTION)) {
+      writeLine(STYLES_SECTION);
+    }
+    for (String line : NEWLINE_RE.split(styles.trim())) {
+      writeLine(line.trim());
+    }
+    writeLine("");
+    writeLine("[Events]");
+    writeLine(EVENTS_FORMAT);
+  }
+
+  private void writeLine(String line) throws IOException {
+    out.write(line);
+    out.newLine();
+  }
+
+  /**
+   * Write a caption as a dialogue event.
+   * Caption line breaks become ASS line breaks, other HTML tags(e.g. SRT italics) are removed.
+   */
+  public void write(Caption caption, SubtitleFile.SubStyle style) throws IOException {
+    String text = caption.getContent().replace(Caption.LINE_BREAK, "\\N");
+    text = NEWLINE_RE.matcher(HTML_TAG_RE.matcher(text).replaceAll("")).replaceAll("\\\\N");
+    writeLine("Dialogue: 0," + formatTime(caption.getStart()) + "," + formatTime(caption.getEnd()) + "," + style
+        + ",,0000,0000,0000,," + text);
+  }
+
+  /**
+   * Format a time in milliseconds as h:mm:ss.cc.
+   */
+  private static String formatTime(int millis) {
+    int centis = millis / 10;
+    return String.format("%d:%02d:%02d.%02d", centis / 360000, centis / 6000 % 60, centis / 100 % 60, centis % 100);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
@@ -1,14 +1,26 @@
 package jijimaku.utils;
 
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ibm.icu.text.CharsetDetector;
 import com.ibm.icu.text.CharsetMatch;
@@ -30,6 +42,16 @@ public class FileManager {
     LOGGER = LogManager.getLogger();
   }
 
+  private static final String BOM = "\uFEFF";
+  // Bytes read by the ICU detector, enough for its statistics
+  private static final int DETECTION_SAMPLE_SIZE = 64 * 1024;
+  // ICU confidence(0 to 100) above which a detected encoding is reused for the other files of the directory
+  private static final int DIRECTORY_CHARSET_MIN_CONFIDENCE = 50;
+  private static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+  private static final Charset UTF_32LE = Charset.forName("UTF-32LE");
+  // Encodings detected for the files that are not UTF-8, by directory
+  private static final Map<Path, Charset> DIRECTORY_CHARSETS = new ConcurrentHashMap<>();
+
   // Add a private constructor to hide the implicit public one
   private FileManager() {
     throw new IllegalStateException("Utility class should not be instanciated");
@@ -39,8 +61,13 @@ public class FileManager {
    * Return the directory from which the application is run.
    * In case of a compiled JAR this is not the current directory unfortunately
    * See https://stackoverflow.com/questions/320542/how-to-get-the-path-of-a-running-jar-file
+   * The jijimaku.appDir system property overrides it, e.g. for the benchmarks that run from a JMH jar.
    */
   public static String getAppDirectory() {
+    String appDirProperty = System.getProperty("jijimaku.appDir");
+    if (appDirProperty != null) {
+      return appDirProperty;
+    }
     Path jarDirectory;
     try {
       jarDirectory = Paths.get(FileManager.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getParent();
@@ -58,6 +85,14 @@ public class FileManager {
     return jarDirectory.getParent().toString();
   }
 
+  /**
+   * Version of the application, from the JAR manifest. It is "dev" when running from the sources.
+   */
+  public static String getAppVersion() {
+    String version = FileManager.class.getPackage().getImplementationVersion();
+    return version != null ? version : "dev";
+  }
+
   /**
    * Directory where to store log files.
    */
@@ -66,35 +101,206 @@ public class FileManager {
   }
 
   /**
-   * Read a text file detecting encoding using http://userguide.icu-project.org/conversion/detection
-   * Return the file contents as a String.
+   * Directory where to store files that can be rebuilt at any time(e.g. compiled dictionaries).
    */
-  public static String fileAnyEncodingToString(File f) throws IOException {
+  public static String getCacheDirectory() {
+    return getAppDirectory() + "/cache";
+  }
 
-    byte[] byteData = IOUtils.toByteArray(new FileInputStream(f));
+  /**
+   * Return the encoding of a text file.
+   * A byte order mark gives the encoding, otherwise nearly all files are UTF-8, so the file is first validated as UTF-8
+   * in a single pass that stops at the first invalid byte.
+   * Only if it is not UTF-8 is the encoding detected, using http://userguide.icu-project.org/conversion/detection
+   * on the first DETECTION_SAMPLE_SIZE bytes of the file. If ICU is confident enough, the detected encoding is then reused
+   * for the other files of the same directory(e.g. the other episodes of a series) that it can decode without running
+   * the detection again.
+   */
+  public static Charset detectCharset(File f) throws IOException {
+    try (InputStream in = new FileInputStream(f)) {
+      byte[] sample = new byte[DETECTION_SAMPLE_SIZE];
+      int sampleLength = IOUtils.read(in, sample);
+      Charset bomCharset = getBomCharset(sample, sampleLength);
+      if (bomCharset != null) {
+        return bomCharset;
+      }
 
-    CharsetDetector detector = new CharsetDetector();
+      Utf8Validator validator = new Utf8Validator();
+      boolean isUtf8 = validator.update(sample, sampleLength);
+      byte[] buffer = new byte[DETECTION_SAMPLE_SIZE];
+      int read;
+      while (isUtf8 && (read = in.read(buffer)) != -1) {
+        isUtf8 = validator.update(buffer, read);
+      }
+      return isUtf8 && validator.isComplete() ? StandardCharsets.UTF_8 : getNonUtf8Charset(f, sample, sampleLength);
+    }
+  }
+
+  /**
+   * Return the encoding given by the byte order mark at the start of the data, or null if there is none.
+   */
+  private static Charset getBomCharset(byte[] data, int length) {
+    // The UTF-32LE mark starts like the UTF-16LE one, so it is checked first
+    if (length >= 4 && data[0] == 0 && data[1] == 0 && data[2] == (byte) 0xFE && data[3] == (byte) 0xFF) {
+      return UTF_32BE;
+    }
+    if (length >= 4 && data[0] == (byte) 0xFF && data[1] == (byte) 0xFE && data[2] == 0 && data[3] == 0) {
+      return UTF_32LE;
+    }
+    if (length >= 3 && data[0] == (byte) 0xEF && data[1] == (byte) 0xBB && data[2] == (byte) 0xBF) {
+      return StandardCharsets.UTF_8;
+    }
+    if (length >= 2 && data[0] == (byte) 0xFF && data[1] == (byte) 0xFE) {
+      return StandardCharsets.UTF_16LE;
+    }
+    if (length >= 2 && data[0] == (byte) 0xFE && data[1] == (byte) 0xFF) {
+      return StandardCharsets.UTF_16BE;
+    }
+    return null;
+  }
+
+  /**
+   * Return the encoding of a file that is not UTF-8: the one already detected in its directory if it can decode
+   * the sample of the file, or the one detected by ICU in this sample.
+   * Defaults to UTF-8(invalid bytes will be replaced) if nothing is detected.
+   */
+  private static Charset getNonUtf8Charset(File f, byte[] sample, int sampleLength) {
+    Path directory = f.getAbsoluteFile().toPath().getParent();
+    Charset cached = DIRECTORY_CHARSETS.get(directory);
+    if (cached != null) {
+      if (canDecode(cached, sample, sampleLength)) {
+        LOGGER.debug("{} is not UTF-8, use the encoding of its directory: {}", f.getName(), cached);
+        return cached;
+      }
+      LOGGER.debug("{} cannot be decoded with the encoding of its directory {}, detect its encoding", f.getName(), cached);
+    }
 
-    String unicodeData = detector.getString(byteData, null);
-    // Add to newline at the end of the file otherwise the subtitle parser library can get confused by EOF
-    unicodeData += System.getProperty("line.separator") + System.getProperty("line.separator");
+    CharsetDetector detector = new CharsetDetector();
+    detector.setText(sampleLength == sample.length ? sample : Arrays.copyOf(sample, sampleLength));
     CharsetMatch match = detector.detect();
-    if (match != null && match.getConfidence() > 60) {
-      LOGGER.debug("{} has a detected encoding: {}", f.getName(), match.getName());
-      if (match.getLanguage() != null) {
-        LOGGER.debug("{} has a detected language: {}", f.getName(), match.getLanguage());
+    if (match == null || !Charset.isSupported(match.getName())) {
+      LOGGER.debug("Could not detect the encoding of {}, assume UTF-8", f.getName());
+      return StandardCharsets.UTF_8;
+    }
+    LOGGER.debug("{} has a detected encoding: {}(confidence {})", f.getName(), match.getName(), match.getConfidence());
+    if (match.getLanguage() != null) {
+      LOGGER.debug("{} has a detected language: {}", f.getName(), match.getLanguage());
+    }
+    Charset charset = Charset.forName(match.getName());
+    if (match.getConfidence() >= DIRECTORY_CHARSET_MIN_CONFIDENCE) {
+      DIRECTORY_CHARSETS.put(directory, charset);
+    }
+    return charset;
+  }
+
+  /**
+   * Return true if the sample has no invalid byte sequence in this encoding.
+   * A character cut at the end of the sample is ignored.
+   */
+  private static boolean canDecode(Charset charset, byte[] sample, int sampleLength) {
+    CharsetDecoder decoder = charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    CharBuffer out = CharBuffer.allocate((int) Math.ceil(sampleLength * (double) decoder.maxCharsPerByte()));
+    return !decoder.decode(ByteBuffer.wrap(sample, 0, sampleLength), out, false).isError();
+  }
+
+  /**
+   * Read a text file detecting its encoding(see detectCharset).
+   * Return the file contents as a String.
+   */
+  public static String fileAnyEncodingToString(File f) throws IOException {
+    byte[] byteData = Files.readAllBytes(f.toPath());
+    Charset charset = getBomCharset(byteData, byteData.length);
+    if (charset == null) {
+      Utf8Validator validator = new Utf8Validator();
+      charset = validator.update(byteData, byteData.length) && validator.isComplete()
+          ? StandardCharsets.UTF_8
+          : getNonUtf8Charset(f, byteData, Math.min(byteData.length, DETECTION_SAMPLE_SIZE));
+    }
+    int bomLength = getBomLength(byteData, charset);
+    return new String(byteData, bomLength, byteData.length - bomLength, charset);
+  }
+
+  /**
+   * Open a text file detecting its encoding(see detectCharset), for files too large to be read in a String.
+   * The byte order mark if any is skipped.
+   */
+  public static Reader fileAnyEncodingReader(File f) throws IOException {
+    Charset charset = detectCharset(f);
+    InputStream in = new BufferedInputStream(new FileInputStream(f));
+    byte[] start = new byte[BOM.getBytes(charset).length];
+    in.mark(start.length);
+    int startLength = IOUtils.read(in, start);
+    in.reset();
+    IOUtils.skipFully(in, getBomLength(Arrays.copyOf(start, startLength), charset));
+    return new BufferedReader(new InputStreamReader(in, charset));
+  }
+
+  /**
+   * Return the length of the byte order mark at the start of the data if there is one for this encoding, 0 otherwise.
+   */
+  private static int getBomLength(byte[] data, Charset charset) {
+    byte[] bom = BOM.getBytes(charset);
+    if (data.length < bom.length) {
+      return 0;
+    }
+    for (int i = 0; i < bom.length; i++) {
+      if (data[i] != bom[i]) {
+        return 0;
       }
     }
-    return unicodeData;
+    return bom.length;
   }
 
-  public static void writeStringArrayToFile(String fileFullPath, String[] lines) throws IOException {
-    try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(fileFullPath), StandardCharsets.UTF_8)) {
-      for (String line : lines) {
-        bw.write(line);
-        bw.newLine();
+  /**
+   * Check that bytes are valid UTF-8, the bytes can be given in several chunks.
+   * See the well-formed byte sequences table in the Unicode standard, chapter 3.9:
+   * overlong forms, surrogates and code points above U+10FFFF are rejected.
+   */
+  static class Utf8Validator {
+    // Number of continuation bytes expected to complete the current character, and the range of the next one
+    private int pending = 0;
+    private int low = 0x80;
+    private int high = 0xBF;
+
+    /**
+     * Return false as soon as an invalid byte is found.
+     */
+    boolean update(byte[] data, int length) {
+      for (int i = 0; i < length; i++) {
+        int b = data[i] & 0xFF;
+        if (pending > 0) {
+          if (b < low || b > high) {
+            return false;
+          }
+          low = 0x80;
+          high = 0xBF;
+          pending--;
+        } else if (b < 0x80) {
+          continue;
+        } else if (b >= 0xC2 && b <= 0xDF) {
+          pending = 1;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+          pending = 2;
+          low = b == 0xE0 ? 0xA0 : 0x80;
+          high = b == 0xED ? 0x9F : 0xBF;
+        } else if (b >= 0xF0 && b <= 0xF4) {
+          pending = 3;
+          low = b == 0xF0 ? 0x90 : 0x80;
+          high = b == 0xF4 ? 0x8F : 0xBF;
+        } else {
+          return false;
+        }
       }
+      return true;
+    }
+
+    /**
+     * Return true if the bytes do not end in the middle of a character.
+     */
+    boolean isComplete() {
+      return pending == 0;
     }
   }
 }
-
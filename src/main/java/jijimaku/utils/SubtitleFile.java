@@ -1,37 +1,19 @@
 package jijimaku.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
-import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.input.BOMInputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import jijimaku.errors.UnexpectedCriticalError;
-import jijimaku.errors.UnexpectedError;
-
-import subtitleFile.Caption;
-import subtitleFile.FatalParsingException;
-import subtitleFile.FormatASS;
-import subtitleFile.FormatSRT;
-import subtitleFile.Style;
-import subtitleFile.TimedTextFileFormat;
-import subtitleFile.TimedTextObject;
+import jijimaku.models.Caption;
 
 
 /**
- * A class to work with ASS/SRT subtitle files.
- * Underwood for now we use the multi-format subtitle library https://github.com/JDaren/subtitleConverter
+ * Utilities to style and annotate the captions of ASS/SRT subtitle files.
+ * Subtitle files are read with SubtitleReader and written with AssWriter, one caption at a time.
  */
 public class SubtitleFile {
   private static final Logger LOGGER;
@@ -41,94 +23,23 @@ public class SubtitleFile {
     LOGGER = LogManager.getLogger();
   }
 
-  private static final String JIJIMAKU_SIGNATURE = "ANNOTATED-BY-JIJIMAKU";
+  static final String JIJIMAKU_SIGNATURE = "ANNOTATED-BY-JIJIMAKU";
+
+  // Display time of the "by Jijimaku" caption
+  private static final int JIJIMAKU_MARK_START = 10;
+  private static final int JIJIMAKU_MARK_END = 4000;
 
   public enum SubStyle {
     DEFINITION,
     DEFAULT
   }
 
-  private final TimedTextObject timedText;
-  private final Hashtable<String, Style> styles;
-  private final TreeMap<Integer, Caption> annotationCaptions;
-
-  // Caption iterator
-  private final Iterator<Map.Entry<Integer, Caption>> captionIter;
-  private Map.Entry<Integer, Caption> currentCaption;
-
-  private int nbCaptionAnnotated = 0;
-
-  public SubtitleFile(String fileName, String fileContents, String stylesStr) throws IOException, FatalParsingException {
-    LOGGER.debug("Parsing subtitle file {}", fileName);
-
-    TimedTextFileFormat timedTextFormat;
-    switch (FilenameUtils.getExtension(fileName)) {
-      case "ass":
-        timedTextFormat = new FormatASS();
-        break;
-      case "srt":
-        timedTextFormat = new FormatSRT();
-        break;
-      default:
-        LOGGER.error("invalid subtitle file extension: {}", fileName);
-        throw new UnexpectedError();
-    }
-
-    // Convert String to InputStream to match subtitleFile API
-    byte[] byteData = fileContents.getBytes("UTF-8");
-    // Must use BOMInputStream otherwise files with BOM will broke :(((
-    // => http://stackoverflow.com/questions/4897876/reading-utf-8-bom-marker
-    try (BOMInputStream inputStream = new BOMInputStream(new ByteArrayInputStream(byteData))) {
-      timedText = timedTextFormat.parseFile(fileName, inputStream, StandardCharsets.UTF_8);
-    }
-
-    if (timedText.warnings.length() > "List of non fatal errors produced during parsing:\n\n".length()) {
-      LOGGER.warn("There was some warnings during parsing. See logs.");
-      LOGGER.debug("Got warnings: %n{}", timedText.warnings);
-    }
-
-    styles = parseStyles(stylesStr);
-    timedText.styling = styles;
-    timedText.description = JIJIMAKU_SIGNATURE;
-    annotationCaptions = new TreeMap<>();
-
-    // Initialization: set style to DEFAULT
-    timedText.captions.values().stream().forEach(c -> c.style = styles.get("DEFAULT"));
-
-    captionIter = timedText.captions.entrySet().iterator();
+  // Add a private constructor to hide the implicit public one
+  private SubtitleFile() {
+    throw new IllegalStateException("Utility class should not be instanciated");
   }
 
-  /**
-   * Set subtitles display styles.
-   * @param stylesStr String representing the styles in ASS format. See DEFAULT_STYLES for an example.
-   */
-  private Hashtable<String, Style> parseStyles(String stylesStr) {
-    try {
-      // Read subtitle styles from config, or use default if missing
-      TimedTextFileFormat emptyTimedText = new FormatASS();
-      TimedTextObject styledTimedText = emptyTimedText.parseFile("", new ByteArrayInputStream(stylesStr.getBytes("UTF-8")));
-      return styledTimedText.styling;
-    } catch (UnsupportedEncodingException exc) {
-      LOGGER.error("Cannot understand subtitle styles definition. Possibly some characters not encoded in UTF8?");
-      LOGGER.debug("Got exception when parsing styles {}", stylesStr, exc);
-      throw new UnexpectedCriticalError();
-    } catch (FatalParsingException | IOException exc) {
-      LOGGER.error("The subtitle styles seem invalid");
-      LOGGER.debug("Got exception when parsing styles {}", stylesStr, exc);
-      throw new UnexpectedCriticalError();
-    }
-  }
-
-  public boolean hasNext() {
-    return captionIter.hasNext();
-  }
-
-  public Caption nextCaption() {
-    currentCaption = captionIter.next();
-    return currentCaption.getValue();
-  }
-
-  private String findWordRegexp(String expression, String wordSeparator) {
+  private static String findWordRegexp(String expression, String wordSeparator) {
     if (wordSeparator.isEmpty()) {
       // We want to find the word even if it spread over multiple lines
       // Solution is from https://stackoverflow.com/a/9896878/257272
@@ -144,8 +55,11 @@ public class SubtitleFile {
     }
   }
 
-  public void colorizeCaptionWord(String expression, String htmlHexColor, String wordSeparator) {
-    StringBuilder content = new StringBuilder(currentCaption.getValue().content);
+  /**
+   * Colorize a word of the caption, if it is found exactly once in the caption.
+   */
+  public static void colorizeCaptionWord(Caption caption, String expression, String htmlHexColor, String wordSeparator) {
+    StringBuilder content = new StringBuilder(caption.getContent());
     String findWordRe = findWordRegexp(expression, wordSeparator);
     Matcher matcher = Pattern.compile(findWordRe).matcher(content.toString());
     if (!matcher.find()) {
@@ -164,67 +78,22 @@ public class SubtitleFile {
       return;
     }
 
-    currentCaption.getValue().content = content.toString();
+    caption.setContent(content.toString());
   }
 
   /**
-   * Add a short "by Jijimaku" message in the subtitle caption at the start of the video.
+   * Return a short "by Jijimaku" message caption, to display at the start of the video.
    */
-  public void addJijimakuMark(String dictionaryTitle) {
-    Integer firstCaptionTimeMs = timedText.captions.entrySet().iterator().next().getKey();
-    if (firstCaptionTimeMs == 0) {
-      // Rare case, give up
-      return;
-    }
-
-    // Caption is read from recource file
-    TimedTextFileFormat ttff = new FormatASS();
-    try {
-      TimedTextObject tto = ttff.parseFile("", getClass().getClassLoader().getResourceAsStream("JijimakuMark.ass"));
-      Caption jijimakuMark = tto.captions.values().iterator().next();
-      jijimakuMark.content = "★ Definitions by {\\c&AAAAFF&}{\\b1}Jijimaku{\\r} using {\\c&FFAAAA&}" + dictionaryTitle + "{\\r}";
-      annotationCaptions.put(0, jijimakuMark);
-    } catch (IOException exc) {
-      LOGGER.error("Cannot read JijimakuMark.ass.", exc);
-    } catch (FatalParsingException exc) {
-      LOGGER.error("Cannot parse JijimakuMark.ass.", exc);
-    }
-  }
-
-  public void annotate(List<String> annotations) {
-    if (annotations.isEmpty()) {
-      return;
-    }
-    // When adding a new caption to the subtitle we must find a key(int time) not yet used
-    Integer time = currentCaption.getKey() + 1;
-    while (timedText.captions.containsKey(time) || annotationCaptions.containsKey(time)) {
-      time++;
-    }
-    Caption annotation = new Caption();
-    annotation.content = String.join("\\N", annotations);
-    annotation.start = currentCaption.getValue().start;
-    annotation.end = currentCaption.getValue().end;
-    annotation.style = styles.get(SubStyle.DEFINITION.toString());
-    annotationCaptions.put(time, annotation);
-    nbCaptionAnnotated++;
-  }
-
-  public String[] toAssFormat() {
-    // Before exporting we add all the annotations to the file captions
-    timedText.captions.putAll(annotationCaptions);
-    return timedText.toASS();
-  }
-
-  public int getNbCaptionAnnotated() {
-    return nbCaptionAnnotated;
+  public static Caption getJijimakuMark(String dictionaryTitle) {
+    return new Caption(JIJIMAKU_MARK_START, JIJIMAKU_MARK_END,
+        "★ Definitions by {\\c&AAAAFF&}{\\b1}Jijimaku{\\r} using {\\c&FFAAAA&}" + dictionaryTitle + "{\\r}");
   }
 
   /**
-   * Read a file and return true if it was written by us.
-   * (search for app signature in first 5 lines)
+   * Return the caption of the annotations of a caption, displayed at the same time.
    */
-  public static boolean isJijimakuFile(String fileContents) {
-    return fileContents.contains(JIJIMAKU_SIGNATURE);
+  public static Caption getAnnotationCaption(Caption caption, List<String> annotations) {
+    return new Caption(caption.getStart(), caption.getEnd(), String.join("\\N", annotations));
   }
 
   /**
@@ -0,0 +1,283 @@
+package jijimaku.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jijimaku.errors.UnexpectedError;
+import jijimaku.models.Caption;
+
+
+/**
+ * Read the captions of an ASS or SRT subtitle file one by one, in file order.
+ * Only the current caption is held in memory, and for ASS files the header before the events.
+ * Lines that cannot be read as a caption are skipped with a debug message, like subtitle players do.
+ */
+public class SubtitleReader implements Closeable {
+  private static final Logger LOGGER;
+
+  static {
+    System.setProperty("logDir", FileManager.getLogsDirectory());
+    LOGGER = LogManager.getLogger();
+  }
+
+  private static final String BOM = "\uFEFF";
+  private static final String ASS_EVENTS_SECTION = "[events]";
+  private static final String ASS_FORMAT = "Format:";
+  private static final String ASS_DIALOGUE = "Dialogue:";
+  private static final String ASS_TITLE = "Title:";
+  // h:mm:ss.cc in ASS files, hh:mm:ss,mmm in SRT files
+  private static final Pattern TIME_RE = Pattern.compile("(\\d+):(\\d{1,2}):(\\d{1,2})[.,](\\d{1,3})");
+  private static final Pattern SRT_TIMING_RE = Pattern.compile("\\s*(\\S+)\\s*-->\\s*(\\S+).*");
+  private static final Pattern SRT_INDEX_RE = Pattern.compile("\\s*\\d+\\s*");
+  private static final Pattern ASS_OVERRIDE_RE = Pattern.compile("\\{[^}]*}");
+  // Our files have the signature in the first lines of the [Script Info] section
+  private static final int SIGNATURE_SCAN_SIZE = 4 * 1024;
+
+  private enum Format {
+    ASS,
+    SRT
+  }
+
+  private final String fileName;
+  private final Format format;
+  private final BufferedReader reader;
+  private String title;
+  private boolean jijimakuFile = false;
+  // Position of the fields in the ASS events, the default is the standard Format line
+  private int assFieldCount = 10;
+  private int assStartField = 1;
+  private int assEndField = 2;
+  private int assTextField = 9;
+  // Line read ahead while looking for the end of the ASS header
+  private String pendingLine = null;
+  private int lineNumber = 0;
+
+  /**
+   * Open a subtitle file, detecting its encoding.
+   */
+  public static SubtitleReader open(File file) throws IOException {
+    return new SubtitleReader(file.getName(), FileManager.fileAnyEncodingReader(file));
+  }
+
+  /**
+   * Return true if the [Script Info] section of an ASS file starts with the app signature, reading only its first bytes.
+   * This is enough for the files we wrote(in UTF-8), other files may still be recognized once opened, see isJijimakuFile().
+   */
+  public static boolean hasJijimakuSignature(File file) throws IOException {
+    byte[] start = new byte[SIGNATURE_SCAN_SIZE];
+    int length;
+    try (InputStream in = new FileInputStream(file)) {
+      length = IOUtils.read(in, start);
+    }
+    // ISO-8859-1 maps each byte to one char, so the ASCII signature and section names are found whatever the encoding
+    String header = new String(start, 0, length, StandardCharsets.ISO_8859_1);
+    int signature = header.indexOf(SubtitleFile.JIJIMAKU_SIGNATURE);
+    int nextSection = header.indexOf("\n[");
+    return signature >= 0 && (nextSection < 0 || signature < nextSection);
+  }
+
+  /**
+   * Read subtitles from a reader, the format is given by the file name extension.
+   */
+  public SubtitleReader(String fileName, Reader reader) throws IOException {
+    LOGGER.debug("Parsing subtitle file {}", fileName);
+    switch (FilenameUtils.getExtension(fileName)) {
+      case "ass":
+        format = Format.ASS;
+        break;
+      case "srt":
+        format = Format.SRT;
+        break;
+      default:
+        LOGGER.error("invalid subtitle file extension: {}", fileName);
+        throw new UnexpectedError();
+    }
+    this.fileName = fileName;
+    this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    title = fileName;
+    if (format == Format.ASS) {
+      readAssHeader();
+    }
+  }
+
+  private String readLine() throws IOException {
+    if (pendingLine != null) {
+      String line = pendingLine;
+      pendingLine = null;
+      return line;
+    }
+    String line = reader.readLine();
+    lineNumber++;
+    if (lineNumber == 1 && line != null && line.startsWith(BOM)) {
+      line = line.substring(BOM.length());
+    }
+    return line;
+  }
+
+  /**
+   * Read the ASS sections before the events, up to the events Format line(or the first dialogue if there is none).
+   */
+  private void readAssHeader() throws IOException {
+    boolean inEvents = false;
+    String line;
+    while ((line = readLine()) != null) {
+      String trimmed = line.trim();
+      if (trimmed.contains(SubtitleFile.JIJIMAKU_SIGNATURE)) {
+        jijimakuFile = true;
+      }
+      if (trimmed.startsWith("[")) {
+        inEvents = trimmed.toLowerCase().equals(ASS_EVENTS_SECTION);
+      } else if (!inEvents && trimmed.startsWith(ASS_TITLE) && !trimmed.substring(ASS_TITLE.length()).trim().isEmpty()) {
+        title = trimmed.substring(ASS_TITLE.length()).trim();
+      } else if (inEvents && trimmed.startsWith(ASS_FORMAT)) {
+        readAssEventsFormat(trimmed.substring(ASS_FORMAT.length()));
+        return;
+      } else if (trimmed.startsWith(ASS_DIALOGUE)) {
+        pendingLine = line;
+        return;
+      }
+    }
+  }
+
+  private void readAssEventsFormat(String fields) {
+    String[] names = fields.split(",");
+    int start = -1;
+    int end = -1;
+    int text = -1;
+    for (int i = 0; i < names.length; i++) {
+      String name = names[i].trim().toLowerCase();
+      if (name.equals("start")) {
+        start = i;
+      } else if (name.equals("end")) {
+        end = i;
+      } else if (name.equals("text")) {
+        text = i;
+      }
+    }
+    if (start < 0 || end < 0 || text != names.length - 1) {
+      LOGGER.debug("{}: unexpected events format {}, use the standard one", fileName, fields);
+      return;
+    }
+    assFieldCount = names.length;
+    assStartField = start;
+    assEndField = end;
+    assTextField = text;
+  }
+
+  /**
+   * Title of the subtitle: the ASS script title if there is one, the file name otherwise.
+   */
+  public String getTitle() {
+    return title;
+  }
+
+  /**
+   * Return true if the file was written by us(it has the app signature in its header).
+   */
+  public boolean isJijimakuFile() {
+    return jijimakuFile;
+  }
+
+  /**
+   * Read the next caption.
+   * @return the caption, or null at the end of the file.
+   */
+  public Caption next() throws IOException {
+    return format == Format.ASS ? nextAssCaption() : nextSrtCaption();
+  }
+
+  private Caption nextAssCaption() throws IOException {
+    String line;
+    while ((line = readLine()) != null) {
+      if (!line.startsWith(ASS_DIALOGUE)) {
+        continue;
+      }
+      String[] fields = line.substring(ASS_DIALOGUE.length()).split(",", assFieldCount);
+      int start = fields.length == assFieldCount ? parseTime(fields[assStartField]) : -1;
+      int end = fields.length == assFieldCount ? parseTime(fields[assEndField]) : -1;
+      if (start < 0 || end < 0) {
+        LOGGER.debug("{} line {}: invalid dialogue, skip it", fileName, lineNumber);
+        continue;
+      }
+      String content = ASS_OVERRIDE_RE.matcher(fields[assTextField]).replaceAll("")
+          .replace("\\N", Caption.LINE_BREAK)
+          .replace("\\n", Caption.LINE_BREAK)
+          .replace("\\h", " ");
+      return new Caption(start, end, content);
+    }
+    return null;
+  }
+
+  /**
+   * A SRT caption is an index line(sometimes missing), a timing line, then text lines up to an empty line.
+   */
+  private Caption nextSrtCaption() throws IOException {
+    String line;
+    while ((line = readLine()) != null) {
+      if (line.trim().isEmpty() || SRT_INDEX_RE.matcher(line).matches()) {
+        continue;
+      }
+      Matcher timing = SRT_TIMING_RE.matcher(line);
+      boolean isTiming = timing.matches();
+      int start = isTiming ? parseTime(timing.group(1)) : -1;
+      int end = isTiming ? parseTime(timing.group(2)) : -1;
+      if (start < 0 || end < 0) {
+        LOGGER.debug("{} line {}: expected caption timing, skip the caption", fileName, lineNumber);
+        readSrtText();
+        continue;
+      }
+      return new Caption(start, end, String.join(Caption.LINE_BREAK, readSrtText()));
+    }
+    return null;
+  }
+
+  /**
+   * Read the text lines of a SRT caption, up to the next empty line.
+   */
+  private List<String> readSrtText() throws IOException {
+    List<String> lines = new ArrayList<>(2);
+    String line;
+    while ((line = readLine()) != null && !line.trim().isEmpty()) {
+      lines.add(line.trim());
+    }
+    return lines;
+  }
+
+  /**
+   * Return a subtitle time in milliseconds, or -1 if it is invalid.
+   * The fraction of second is in centiseconds in ASS files and milliseconds in SRT files, it is read as a decimal part.
+   */
+  private static int parseTime(String time) {
+    Matcher matcher = TIME_RE.matcher(time.trim());
+    if (!matcher.matches()) {
+      return -1;
+    }
+    String fraction = matcher.group(4);
+    int millis = Integer.parseInt(fraction);
+    for (int i = fraction.length(); i < 3; i++) {
+      millis *= 10;
+    }
+    return ((Integer.parseInt(matcher.group(1)) * 60 + Integer.parseInt(matcher.group(2))) * 60
+        + Integer.parseInt(matcher.group(3))) * 1000 + millis;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -0,0 +1,208 @@
+package jijimaku.workers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jijimaku.errors.UnexpectedCriticalError;
+import jijimaku.utils.FileManager;
+
+
+/**
+ * Record of the subtitle files of a search directory that were already annotated, so that the next runs skip
+ * the files that did not change.
+ * For each source file the manifest keeps its modification time, size and content hash, and whether it produced
+ * an annotated file. The whole manifest is only valid for the services fingerprint(dictionary, config, parser)
+ * it was written with: when one of them changes, all the files are annotated again.
+ *
+ * <p>The manifest is a text file in the search directory:
+ * a first line "MAGIC FORMAT_VERSION fingerprint", then one line per file "mtime TAB size TAB hash TAB annotated TAB path".
+ * It is shared by the annotation threads.
+ */
+class AnnotationManifest {
+  private static final Logger LOGGER;
+
+  static {
+    System.setProperty("logDir", FileManager.getLogsDirectory());
+    LOGGER = LogManager.getLogger();
+  }
+
+  static final String MANIFEST_FILE = ".jijimaku-manifest";
+  private static final String MAGIC = "JIJIMAKU-MANIFEST";
+  private static final int FORMAT_VERSION = 1;
+
+  private static class Entry {
+    private final long modifiedTime;
+    private final long size;
+    private final String hash;
+    private final boolean annotated;
+
+    private Entry(long modifiedTime, long size, String hash, boolean annotated) {
+      this.modifiedTime = modifiedTime;
+      this.size = size;
+      this.hash = hash;
+      this.annotated = annotated;
+    }
+  }
+
+  private final Path searchDirectory;
+  private final Path manifestFile;
+  private final String header;
+  // Source files by path relative to the search directory
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  // Files checked during this run, the entries of the other files are removed when a whole run is saved
+  private final Set<String> seen = ConcurrentHashMap.newKeySet();
+  private volatile boolean modified = false;
+
+  private AnnotationManifest(Path searchDirectory, String fingerprint) {
+    this.searchDirectory = searchDirectory;
+    this.manifestFile = searchDirectory.resolve(MANIFEST_FILE);
+    this.header = MAGIC + " " + FORMAT_VERSION + " " + fingerprint;
+  }
+
+  /**
+   * Load the manifest of a search directory.
+   * It is empty if there is no manifest yet, or if it was written for other services.
+   */
+  static AnnotationManifest load(File searchDirectory, String fingerprint) {
+    AnnotationManifest manifest = new AnnotationManifest(searchDirectory.toPath(), fingerprint);
+    if (!Files.exists(manifest.manifestFile)) {
+      return manifest;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(manifest.manifestFile, StandardCharsets.UTF_8)) {
+      if (!manifest.header.equals(reader.readLine())) {
+        LOGGER.debug("The dictionary, config or parser changed since the last run, all the files will be annotated");
+        manifest.modified = true;
+        return manifest;
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", 5);
+        if (fields.length == 5) {
+          manifest.entries.put(fields[4], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2],
+              Boolean.parseBoolean(fields[3])));
+        }
+      }
+      LOGGER.debug("The manifest of {} has {} annotated files", searchDirectory.getName(), manifest.entries.size());
+    } catch (IOException | NumberFormatException exc) {
+      // The manifest is only an optimization, start over with an empty one
+      LOGGER.debug("Cannot read the manifest {}", manifest.manifestFile, exc);
+      manifest.entries.clear();
+      manifest.modified = true;
+    }
+    return manifest;
+  }
+
+  private String getKey(File file) {
+    return searchDirectory.relativize(file.toPath()).toString().replace('\\', '/');
+  }
+
+  /**
+   * Return true if the file was already annotated with the current services and did not change since.
+   * The file contents are only read if its modification time changed but not its size.
+   * @param outFile the annotated file produced from this file, it must still exist
+   */
+  boolean isUpToDate(File file, Path outFile) throws IOException {
+    String key = getKey(file);
+    seen.add(key);
+    Entry entry = entries.get(key);
+    if (entry == null || entry.annotated && !Files.exists(outFile)) {
+      return false;
+    }
+    BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    if (attributes.size() != entry.size) {
+      return false;
+    }
+    long modifiedTime = attributes.lastModifiedTime().toMillis();
+    if (modifiedTime == entry.modifiedTime) {
+      return true;
+    }
+    // The file was touched(e.g. copied again), check if its contents changed
+    if (!hash(file).equals(entry.hash)) {
+      return false;
+    }
+    entries.put(key, new Entry(modifiedTime, entry.size, entry.hash, entry.annotated));
+    modified = true;
+    return true;
+  }
+
+  /**
+   * Record a file once it is processed.
+   * @param annotated true if an annotated file was written, false if there was nothing to annotate
+   */
+  void record(File file, boolean annotated) throws IOException {
+    String key = getKey(file);
+    seen.add(key);
+    BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    entries.put(key, new Entry(attributes.lastModifiedTime().toMillis(), attributes.size(), hash(file), annotated));
+    modified = true;
+  }
+
+  private static String hash(File file) throws IOException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      try (InputStream in = Files.newInputStream(file.toPath())) {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          digest.update(buffer, 0, read);
+        }
+      }
+      StringBuilder hash = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hash.append(String.format("%02x", b));
+      }
+      return hash.toString();
+    } catch (NoSuchAlgorithmException exc) {
+      LOGGER.debug(exc);
+      LOGGER.error("SHA-1 is not available in this Java runtime");
+      throw new UnexpectedCriticalError();
+    }
+  }
+
+  /**
+   * Write the manifest if it changed.
+   * Failing to write it is not critical, the files will just be annotated again next time.
+   * @param wholeRun true if all the files of the search directory were checked during this run,
+   *                 then the files that were not seen(deleted or renamed) are removed from the manifest
+   */
+  void save(boolean wholeRun) {
+    if (wholeRun && entries.keySet().retainAll(seen)) {
+      modified = true;
+    }
+    if (!modified) {
+      return;
+    }
+    Path tmp = Paths.get(manifestFile + ".tmp");
+    try {
+      try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        out.write(header + "\n");
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          Entry e = entry.getValue();
+          out.write(e.modifiedTime + "\t" + e.size + "\t" + e.hash + "\t" + e.annotated + "\t" + entry.getKey() + "\n");
+        }
+      }
+      Files.move(tmp, manifestFile, StandardCopyOption.REPLACE_EXISTING);
+      modified = false;
+    } catch (IOException exc) {
+      LOGGER.debug(exc);
+      LOGGER.warn("Could not write the annotation manifest {}", manifestFile);
+    }
+  }
+}
@@ -0,0 +1,288 @@
+package jijimaku.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jijimaku.errors.UnexpectedError;
+import jijimaku.models.AnnotationResult;
+import jijimaku.models.AnnotationSummary;
+import jijimaku.models.ServicesParam;
+import jijimaku.services.AnnotationService;
+import jijimaku.services.langparser.LangParser;
+import jijimaku.services.langparser.LangParserCached;
+import jijimaku.utils.FileManager;
+import jijimaku.utils.SubtitleReader;
+
+
+/**
+ * Annotate the subtitle files of a directory tree.
+ * Used by the GUI worker and by the command-line mode, it does not depend on Swing.
+ * Files are processed in parallel by a fixed number of threads, but their logs are written in the order of the files:
+ * the messages of one file are kept until all the previous files are done, then written all at once.
+ */
+public class DirectoryAnnotator {
+  private static final Logger LOGGER;
+
+  private static final String ASS_FILE_BACKUP_SUFFIX = "._original";
+  private static final String TMP_FILE_SUFFIX = ".tmp";
+  // Number of files submitted ahead of the one being logged, per thread
+  private static final int PENDING_FILES_PER_THREAD = 2;
+
+  static {
+    System.setProperty("logDir", FileManager.getLogsDirectory());
+    LOGGER = LogManager.getLogger();
+  }
+
+  private final File searchDirectory;
+  private final String[] searchExtensions;
+  private final AnnotationService annotationService;
+  private final LangParser langParser;
+  private final int nbThreads;
+  // Null if the services have no fingerprint, then all the files are annotated on each run
+  private final String fingerprint;
+  private AnnotationManifest manifest = null;
+  // Lock of each output file, taken while one of its source files is processed
+  private final Map<Path, Lock> outFileLocks = new ConcurrentHashMap<>();
+
+  /**
+   * Result of the processing of one file, with the log messages to write when its turn comes.
+   */
+  private static class FileResult {
+    private final List<Level> levels = new ArrayList<>();
+    private final List<String> messages = new ArrayList<>();
+    private final List<Throwable> exceptions = new ArrayList<>();
+    // Null if the file was skipped or failed
+    private AnnotationResult annotation = null;
+    private boolean failed = false;
+
+    private void log(Level level, String message) {
+      log(level, message, null);
+    }
+
+    private void log(Level level, String message, Throwable exc) {
+      levels.add(level);
+      messages.add(message);
+      exceptions.add(exc);
+    }
+
+    private void writeLogs() {
+      for (int i = 0; i < messages.size(); i++) {
+        LOGGER.log(levels.get(i), messages.get(i), exceptions.get(i));
+      }
+    }
+  }
+
+  /**
+   * Constructor.
+   * @param searchDirectory disk directory where to search subtitles(recursive)
+   * @param nbThreads number of files to annotate in parallel
+   */
+  public DirectoryAnnotator(File searchDirectory, String[] searchExtensions, ServicesParam services, int nbThreads) {
+    if (searchDirectory == null || !searchDirectory.isDirectory()) {
+      LOGGER.error("Invalid search directory {}", String.valueOf(searchDirectory));
+      throw new UnexpectedError();
+    }
+    this.searchDirectory = searchDirectory;
+    this.searchExtensions = searchExtensions;
+    this.annotationService = new AnnotationService(services);
+    this.langParser = services.getParser();
+    this.nbThreads = nbThreads;
+    this.fingerprint = services.getFingerprint();
+  }
+
+  private static Path getBackupFile(File fileEntry, String fileBaseName) {
+    return Paths.get(fileEntry.getParent(), fileBaseName + ASS_FILE_BACKUP_SUFFIX + ".ass");
+  }
+
+  /**
+   * Process one file.
+   * The annotated file is written to a temporary file first: for ASS files the output is the file being read,
+   * and nothing must be written if there is nothing to annotate.
+   * The temporary file is named after the output file, so two sources of the same output must not run at the same time.
+   * @return the annotation result, or null if the file was skipped.
+   */
+  private AnnotationResult processFile(File fileEntry, FileResult result) throws IOException {
+    String fileName = fileEntry.getName();
+    String originalBaseName = FilenameUtils.getBaseName(fileName);
+    boolean isAssFile = FilenameUtils.getExtension(fileName).equals("ass");
+    String fileBaseName = originalBaseName;
+    if (isAssFile && fileBaseName.endsWith(ASS_FILE_BACKUP_SUFFIX)) {
+      // This is already our copy, just remove suffix when writing out the result
+      fileBaseName = fileBaseName.substring(0, fileBaseName.lastIndexOf(ASS_FILE_BACKUP_SUFFIX));
+    }
+    final Path outFile = Paths.get(fileEntry.getParent(), fileBaseName + ".ass");
+    Path tmpFile = Paths.get(fileEntry.getParent(), fileBaseName + ".ass" + TMP_FILE_SUFFIX);
+
+    // Sources with the same output(e.g. foo.srt and foo.ass) are processed one after the other, as in a sequential run
+    Lock outFileLock = outFileLocks.computeIfAbsent(outFile, path -> new ReentrantLock());
+    outFileLock.lock();
+    try {
+      // Screen out the files we wrote before reading them: an ASS file that has a backup copy is our output
+      boolean hasBackup = isAssFile && !originalBaseName.endsWith(ASS_FILE_BACKUP_SUFFIX) && Files.exists(getBackupFile(fileEntry, fileBaseName));
+      if (fileEntry.isHidden() || hasBackup) {
+        result.log(Level.DEBUG, fileName + " is one of our annotated subtitle, skip it.");
+        return null;
+      }
+      if (manifest != null && manifest.isUpToDate(fileEntry, outFile)) {
+        result.log(Level.DEBUG, fileName + " did not change since it was annotated, skip it.");
+        return null;
+      }
+      if (isAssFile && SubtitleReader.hasJijimakuSignature(fileEntry)) {
+        result.log(Level.DEBUG, fileName + " is one of our annotated subtitle, skip it.");
+        return null;
+      }
+
+      AnnotationResult annotation;
+      try (SubtitleReader subtitle = SubtitleReader.open(fileEntry)) {
+        if (subtitle.isJijimakuFile()) {
+          result.log(Level.DEBUG, fileName + " is one of our annotated subtitle, skip it.");
+          return null;
+        }
+        result.log(Level.INFO, "Processing " + fileName + "...");
+        try (Writer out = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+          annotation = annotationService.annotateSubtitleFile(subtitle, out);
+        } catch (IOException | RuntimeException exc) {
+          Files.deleteIfExists(tmpFile);
+          throw exc;
+        }
+      }
+      if (!annotation.isAnnotated()) {
+        Files.delete(tmpFile);
+        result.log(Level.INFO, "Nothing to annotate was found in this file(wrong language?)");
+        if (manifest != null) {
+          manifest.record(fileEntry, false);
+        }
+        return annotation;
+      }
+
+      // For ASS files, make a copy because the original file will be overwritten, the copy is the source from now on
+      File sourceFile = fileEntry;
+      if (isAssFile && !originalBaseName.endsWith(ASS_FILE_BACKUP_SUFFIX)) {
+        sourceFile = getBackupFile(fileEntry, fileBaseName).toFile();
+        Files.copy(fileEntry.toPath(), sourceFile.toPath());
+      }
+      Files.move(tmpFile, outFile, StandardCopyOption.REPLACE_EXISTING);
+      if (manifest != null) {
+        manifest.record(sourceFile, true);
+      }
+      return annotation;
+    } finally {
+      outFileLock.unlock();
+    }
+  }
+
+  /**
+   * Process one file on a pool thread, errors are recorded in the result instead of being thrown.
+   */
+  private FileResult processFileTask(File fileEntry) {
+    FileResult result = new FileResult();
+    try {
+      result.annotation = processFile(fileEntry, result);
+    } catch (CancellationException exc) {
+      result.log(Level.DEBUG, "Annotation of " + fileEntry.getName() + " was cancelled.");
+    } catch (Exception exc) {
+      result.failed = true;
+      result.log(Level.ERROR, "Error while trying to annotate " + fileEntry.getName() + ". See log for details. Skip file.");
+      result.log(Level.DEBUG, "Got exception", exc);
+    }
+    return result;
+  }
+
+  /**
+   * Annotate all the subtitle files found in the search directory.
+   * The annotation stops early if isCancelled returns true or if the calling thread is interrupted.
+   */
+  public AnnotationSummary annotate(BooleanSupplier isCancelled) {
+    LOGGER.info("------------------- Searching in {} -------------------", searchDirectory.getAbsolutePath());
+    final long startTime = System.nanoTime();
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(nbThreads, r -> {
+      Thread thread = new Thread(r, "annotate-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    manifest = fingerprint != null ? AnnotationManifest.load(searchDirectory, fingerprint) : null;
+    AnnotationSummary summary = new AnnotationSummary();
+    Iterator<File> files = FileUtils.listFiles(searchDirectory, searchExtensions, true).iterator();
+    Deque<Future<FileResult>> pending = new ArrayDeque<>();
+    try {
+      while (files.hasNext() || !pending.isEmpty()) {
+        // Keep the pool busy without queuing results for the whole directory
+        while (files.hasNext() && pending.size() < nbThreads * PENDING_FILES_PER_THREAD) {
+          File fileEntry = files.next();
+          pending.add(executor.submit(() -> processFileTask(fileEntry)));
+        }
+
+        FileResult result = pending.remove().get();
+        if (isCancelled.getAsBoolean()) {
+          LOGGER.debug("Annotation was cancelled.");
+          summary.setCancelled(true);
+          break;
+        }
+        result.writeLogs();
+        if (result.failed) {
+          summary.addFailedFile();
+        } else {
+          summary.addFile(result.annotation);
+        }
+      }
+    } catch (InterruptedException exc) {
+      // The caller thread is interrupted while it waits for a file
+      LOGGER.debug("Annotation was interrupted.");
+      summary.setCancelled(true);
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException exc) {
+      // processFileTask catches all exceptions, only errors can end up here
+      throw (Error) exc.getCause();
+    } finally {
+      // Interrupt the files still in progress, they stop at the next caption
+      executor.shutdownNow();
+    }
+    if (manifest != null) {
+      manifest.save(!summary.isCancelled());
+    }
+    summary.setWallTimeMs((System.nanoTime() - startTime) / 1_000_000);
+
+    if (summary.isCancelled()) {
+      return summary;
+    }
+    if (summary.getNbAnnotatedFiles() > 0) {
+      LOGGER.info("{} subtitle files were annotated.", summary.getNbAnnotatedFiles());
+    } else {
+      LOGGER.info("No subtitle found in this directory.");
+    }
+    if (langParser instanceof LangParserCached) {
+      LOGGER.debug(((LangParserCached) langParser).getStatistics());
+    }
+    return summary;
+  }
+}
@@ -0,0 +1,286 @@
+package jijimaku.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jijimaku.AppConfig;
+import jijimaku.errors.UnexpectedCriticalError;
+import jijimaku.models.ServicesParam;
+import jijimaku.services.LanguageService.Language;
+import jijimaku.services.dictionary.Dictionary;
+import jijimaku.services.dictionary.DictionaryCompiled;
+import jijimaku.services.dictionary.DictionaryJiji;
+import jijimaku.services.dictionary.DictionaryJmdict;
+import jijimaku.services.dictionary.DictionaryLingoesLd2;
+import jijimaku.services.dictionary.DictionaryStarDict;
+import jijimaku.services.dictionary.LanguageTags;
+import jijimaku.services.dictionary.LemmaFilter;
+import jijimaku.services.langparser.LangParser;
+import jijimaku.services.langparser.LangParserCached;
+import jijimaku.services.langparser.LangParserKuromoji;
+import jijimaku.services.langparser.LangParserUdpipe;
+import jijimaku.services.langrules.LangRules;
+import jijimaku.utils.FileManager;
+
+
+/**
+ * Initialize all services: configuration, dictionary and language parser.
+ * Used by the GUI worker and by the command-line mode, it does not depend on Swing.
+ */
+public class ServicesInitializer {
+  private static final Logger LOGGER;
+
+  static {
+    System.setProperty("logDir", FileManager.getLogsDirectory());
+    LOGGER = LogManager.getLogger();
+  }
+
+  // Version of the annotation of the files, to bump when a change of the code changes the annotated files
+  private static final int ANNOTATION_VERSION = 1;
+
+  private final File configFile;
+
+  /**
+   * Constructor.
+   * @param configFile the application config.yaml
+   */
+  public ServicesInitializer(File configFile) {
+    this.configFile = configFile;
+  }
+
+  /**
+   * Search for the dictionary file.
+   * Either specified in the config or look in app directory for *.ld2, *.jiji.yaml, *.ifo, JMdict XML
+   */
+  private File getDictionaryFile(String appDirectory, AppConfig config) {
+    if (config.getDictionary() != null) {
+      File dictionaryFile = new File(appDirectory + "/" + config.getDictionary());
+      if (!dictionaryFile.exists()) {
+        LOGGER.error("Could not find the dictionary file {} in directory {}", config.getDictionary(), appDirectory);
+        throw new UnexpectedCriticalError();
+      }
+      return dictionaryFile;
+    }
+
+    // Find first dictionary file in app directory
+    try {
+      Optional<Path> dictPath = Files.list(Paths.get(appDirectory + "/"))
+          .filter(s -> s.toString().endsWith(".ld2") || s.toString().endsWith(".jiji.yaml")
+              || s.toString().endsWith(DictionaryStarDict.IFO_EXT) || DictionaryJmdict.isJmdictFile(s.getFileName().toString()))
+          .findAny();
+      if (!dictPath.isPresent()) {
+        LOGGER.error("No dictionary file found, please specify a dictionary file using the 'dictionary' keyword in config.yaml");
+        throw new UnexpectedCriticalError();
+      }
+      return dictPath.get().toFile();
+    } catch (IOException exc) {
+      LOGGER.debug(exc);
+      LOGGER.error("Error while searching for a dictionary file");
+      throw new UnexpectedCriticalError();
+    }
+  }
+
+  /**
+   * Load the dictionary from its compiled snapshot if there is one,
+   * otherwise parse the dictionary file and compile it for the next launches.
+   * StarDict dictionaries are already searchable on disk, they are used directly.
+   */
+  private Dictionary loadDictionary(File compiledFile, File dictionaryFile, AppConfig config) {
+    if (dictionaryFile.getName().toLowerCase().endsWith(DictionaryStarDict.IFO_EXT)) {
+      return new DictionaryStarDict(dictionaryFile, config);
+    }
+
+    Dictionary dict = DictionaryCompiled.open(compiledFile);
+    if (dict != null) {
+      return dict;
+    }
+
+    if (dictionaryFile.getName().toLowerCase().endsWith(".ld2")) {
+      dict = new DictionaryLingoesLd2(dictionaryFile, config);
+    } else if (DictionaryJmdict.isJmdictFile(dictionaryFile.getName()) || dictionaryFile.getName().toLowerCase().endsWith(".xml")) {
+      dict = new DictionaryJmdict(dictionaryFile, config);
+    } else {
+      dict = new DictionaryJiji(dictionaryFile, config);
+    }
+    DictionaryCompiled.compile(dict, compiledFile);
+    return dict;
+  }
+
+  /**
+   * Return the language of the dictionary when it is known before loading it: a JMdict file is always Japanese,
+   * a compiled snapshot has it in its header, an LD2 or StarDict dictionary can get it from the config or its name.
+   * The language returned is always the one the loaded dictionary will have, so the parser can be started for it
+   * in parallel: a parser for the wrong language would be useless, and loading a UDPipe model cannot be stopped.
+   * @return the language, or null if it is only known once the dictionary is loaded.
+   */
+  private Language getKnownLanguage(File compiledFile, File dictionaryFile, AppConfig config) {
+    String name = dictionaryFile.getName().toLowerCase();
+    if (name.endsWith(DictionaryStarDict.IFO_EXT)) {
+      return DictionaryStarDict.getLanguageFromConfigOrInfo(config.getDictionaryLanguage(), dictionaryFile);
+    }
+    if (DictionaryJmdict.isJmdictFile(name) || name.endsWith(".xml")) {
+      return Language.JAPANESE;
+    }
+    Language language = DictionaryCompiled.readLanguageFrom(compiledFile);
+    if (language == null && name.endsWith(".ld2")) {
+      language = DictionaryLingoesLd2.getLanguageFromConfigOrName(config.getDictionaryLanguage(), dictionaryFile.getName());
+    }
+    return language;
+  }
+
+  /**
+   * Instantiate the parser for the language of the dictionary.
+   */
+  private LangParser createParser(Language language, AppConfig config) {
+    LangParser langParser;
+    if (language == Language.JAPANESE) {
+      langParser = new LangParserKuromoji(config);
+    } else {
+      // The dependency parsing is only useful to the annotation rules that use it
+      LangRules rules = LangRules.forLanguage(language);
+      langParser = new LangParserUdpipe(language, config, rules != null && rules.requiresDependencyParse());
+    }
+    if (config.getParseCacheSize() > 0) {
+      langParser = new LangParserCached(langParser, config.getParseCacheSize());
+    }
+    return langParser;
+  }
+
+  /**
+   * Run one initialization phase and log how long it took.
+   */
+  private <T> T timed(String phase, Supplier<T> supplier) {
+    long startTime = System.nanoTime();
+    T result = supplier.get();
+    LOGGER.debug("{} took {} ms", phase, (System.nanoTime() - startTime) / 1_000_000);
+    return result;
+  }
+
+  /**
+   * Hash of everything that determines the annotation of a file: the application version, the config file,
+   * the dictionary(its compiled file name is keyed by the dictionary contents, or by the size and modification time of
+   * the StarDict data files), the language tags files and the parser. The annotation manifest is only valid for this fingerprint.
+   */
+  private String getFingerprint(File compiledFile, LanguageTags languageTags, LangParser langParser) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update((FileManager.getAppVersion() + ":" + ANNOTATION_VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+      digest.update(Files.readAllBytes(configFile.toPath()));
+      digest.update(("\n" + compiledFile.getName()).getBytes(StandardCharsets.UTF_8));
+      digest.update(("\n" + languageTags.getTagFilesFingerprint()).getBytes(StandardCharsets.UTF_8));
+      digest.update(("\n" + langParser.getParserId() + "\n" + langParser.getLanguage()).getBytes(StandardCharsets.UTF_8));
+      StringBuilder hash = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hash.append(String.format("%02x", b));
+      }
+      return hash.toString();
+    } catch (IOException | NoSuchAlgorithmException exc) {
+      LOGGER.debug(exc);
+      LOGGER.error("Problem reading config file {}", configFile.getAbsolutePath());
+      throw new UnexpectedCriticalError();
+    }
+  }
+
+  /**
+   * Wait for a phase, and throw its exception as is if it failed.
+   */
+  private <T> T join(CompletableFuture<T> phase) {
+    try {
+      return phase.join();
+    } catch (CompletionException exc) {
+      if (exc.getCause() instanceof Error) {
+        throw (Error) exc.getCause();
+      }
+      if (exc.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) exc.getCause();
+      }
+      throw exc;
+    }
+  }
+
+  /**
+   * Load the configuration and instantiate the services.
+   * The dictionary and the parser are loaded in parallel when the language of the dictionary is known beforehand,
+   * otherwise the parser waits for the dictionary to detect it.
+   */
+  public ServicesParam initialize() {
+    LOGGER.info("-------------------------- Initialization --------------------------");
+    long startTime = System.nanoTime();
+    String appDirectory = FileManager.getAppDirectory();
+    LOGGER.debug("Application directory seems to be {}", appDirectory);
+
+    // Load configuration
+    LOGGER.info("Loading configuration...");
+    if (!configFile.exists()) {
+      LOGGER.error("Could not find config file {} in directory '{}'", configFile.getName(), configFile.getAbsoluteFile().getParent());
+      throw new UnexpectedCriticalError();
+    }
+
+    AppConfig config = timed("Loading configuration", () -> new AppConfig(configFile));
+    File dictionaryFile = getDictionaryFile(appDirectory, config);
+    File compiledFile = DictionaryCompiled.getCompiledFile(dictionaryFile, config);
+    Language knownLanguage = getKnownLanguage(compiledFile, dictionaryFile, config);
+
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+      Thread thread = new Thread(r, "initialize-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      LOGGER.info("Loading dictionary...");
+      CompletableFuture<Dictionary> dictFuture = CompletableFuture.supplyAsync(
+          () -> timed("Loading dictionary", () -> loadDictionary(compiledFile, dictionaryFile, config)), executor);
+
+      LOGGER.info("Instantiate parser...");
+      if (knownLanguage == null) {
+        LOGGER.debug("The dictionary language is not known yet, the parser will be instantiated after the dictionary is loaded");
+      }
+      CompletableFuture<Language> languageFuture = knownLanguage != null
+          ? CompletableFuture.completedFuture(knownLanguage)
+          : dictFuture.thenApply(Dictionary::getLanguageFrom);
+      CompletableFuture<LangParser> parserFuture = languageFuture.thenApplyAsync(
+          language -> timed("Instantiating parser", () -> createParser(language, config)), executor);
+
+      Dictionary dict = join(dictFuture);
+      LemmaFilter filter = dict.getIndex().getFilter();
+      if (filter != null && LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Dictionary filter takes {} KB, estimated false positive rate {}",
+            filter.sizeInBytes() / 1024, String.format("%.4f", filter.getFalsePositiveRate()));
+      }
+      LangParser langParser = join(parserFuture);
+      if (langParser.getLanguage() != dict.getLanguageFrom()) {
+        LOGGER.error("The dictionary language is {} instead of {}", dict.getLanguageFrom(), langParser.getLanguage());
+        throw new UnexpectedCriticalError();
+      }
+      // Load the language tags used by the config now rather than when the first file is annotated
+      LanguageTags languageTags = timed("Loading language tags", () -> {
+        LanguageTags tags = new LanguageTags(dict, DictionaryCompiled.getLanguageTagsFile(compiledFile));
+        tags.mask(config.getIgnoreTags());
+        return tags;
+      });
+      LOGGER.info("Ready to work!");
+      LOGGER.debug("Initialization took {} ms", (System.nanoTime() - startTime) / 1_000_000);
+
+      return new ServicesParam(config, dict, langParser, languageTags, getFingerprint(compiledFile, languageTags, langParser));
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package jijimaku.services.dictionary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class DictionaryIndexMappedTest {
+
+  private final TagTable tagTable = new TagTable();
+  private final List<DictionaryEntry> entries = new ArrayList<>();
+  private File indexFile;
+
+  @Before
+  public void createEntries() throws IOException {
+    entries.add(entry(Collections.singletonList("深海"), Collections.singletonList("deep sea"),
+        Collections.singletonList("しんかい"), "freq01", "noun"));
+    entries.add(entry(Collections.singletonList("深海"), Collections.singletonList("abyss"), null));
+    entries.add(entry(Arrays.asList("世界", "世の中"), Arrays.asList("world", "society"), Collections.singletonList("せかい")));
+    entries.add(entry(Collections.singletonList("生物"), Arrays.asList("living thing", "creature"),
+        Arrays.asList("せいぶつ", "セイブツ", "なまもの"), "freq02"));
+    entries.add(entry(Collections.singletonList("生"), Collections.singletonList("life"), Collections.singletonList("せい")));
+    entries.add(entry(Collections.singletonList("Über"), Collections.singletonList("over"), null));
+    for (int i = 0; i < 500; i++) {
+      entries.add(entry(Collections.singletonList("word" + i), Collections.singletonList("sense " + i), null));
+    }
+    indexFile = File.createTempFile("jijimaku", ".jijidict");
+  }
+
+  @After
+  public void deleteIndexFile() {
+    // A mapped file cannot be deleted on some systems
+    if (!indexFile.delete()) {
+      indexFile.deleteOnExit();
+    }
+  }
+
+  private DictionaryEntry entry(List<String> lemmas, List<String> senses, List<String> pronunciations, String... tags) {
+    return new DictionaryEntry(lemmas, senses, pronunciations, tags.length > 0 ? new HashSet<>(Arrays.asList(tags)) : null, tagTable);
+  }
+
+  /**
+   * Index the entries like DictionaryIndexBuilder.
+   */
+  private DictionaryIndex buildHeapIndex(double filterFalsePositiveRate) {
+    Map<String, List<DictionaryEntry>> entriesByLemma = new HashMap<>();
+    Map<String, List<DictionaryEntry>> entriesByReading = new HashMap<>();
+    for (DictionaryEntry entry : entries) {
+      for (String lemma : entry.getLemmas()) {
+        entriesByLemma.computeIfAbsent(lemma, k -> new ArrayList<>()).add(entry);
+      }
+      if (entry.getPronunciations() != null) {
+        for (String pronunciation : entry.getPronunciations()) {
+          List<DictionaryEntry> readingEntries = entriesByReading.computeIfAbsent(Readings.normalize(pronunciation), k -> new ArrayList<>());
+          if (!readingEntries.contains(entry)) {
+            readingEntries.add(entry);
+          }
+        }
+      }
+    }
+    return new DictionaryIndexHeap(entriesByLemma, entriesByReading, tagTable, filterFalsePositiveRate);
+  }
+
+  private DictionaryIndex writeAndMap(DictionaryIndex index) throws IOException {
+    try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      DictionaryIndexMapped.write(index, channel);
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new DictionaryIndexMapped(buffer);
+    }
+  }
+
+  private static Map<String, List<DictionaryEntry>> lemmas(DictionaryIndex index) {
+    Map<String, List<DictionaryEntry>> lemmas = new HashMap<>();
+    index.forEach(lemmas::put);
+    return lemmas;
+  }
+
+  private static Map<String, List<DictionaryEntry>> readings(DictionaryIndex index) {
+    Map<String, List<DictionaryEntry>> readings = new HashMap<>();
+    index.forEachReading(readings::put);
+    return readings;
+  }
+
+  @Test
+  public void sameEntriesAsHeapIndex() throws Exception {
+    DictionaryIndex heap = buildHeapIndex(0.01);
+    DictionaryIndex mapped = writeAndMap(heap);
+
+    assertEquals(heap.size(), mapped.size());
+    assertEquals(lemmas(heap), lemmas(mapped));
+    assertEquals(readings(heap), readings(mapped));
+    for (String lemma : lemmas(heap).keySet()) {
+      assertEquals(heap.search(lemma), mapped.search(lemma));
+    }
+    assertEquals(2, mapped.search("深海").size());
+    assertEquals(Arrays.asList("world", "society"), mapped.search("世の中").get(0).getSenses());
+  }
+
+  @Test
+  public void tagsAndFrequency() throws Exception {
+    DictionaryIndex mapped = writeAndMap(buildHeapIndex(0.01));
+    DictionaryEntry deepSea = mapped.search("深海").get(0);
+    assertEquals(new HashSet<>(Arrays.asList("freq01", "noun")), deepSea.getTags());
+    assertEquals(Integer.valueOf(1), deepSea.getFrequency());
+    assertTrue(deepSea.hasAnyTag(mapped.getTagTable().mask(Collections.singletonList("noun"))));
+    assertFalse(deepSea.hasAnyTag(mapped.getTagTable().mask(Collections.singletonList("freq02"))));
+    assertNull(mapped.search("生").get(0).getFrequency());
+  }
+
+  @Test
+  public void missingLemmas() throws Exception {
+    DictionaryIndex mapped = writeAndMap(buildHeapIndex(0.01));
+    // A prefix of a lemma is not a lemma
+    assertTrue(mapped.search("深").isEmpty());
+    assertTrue(mapped.search("word").isEmpty());
+    assertTrue(mapped.search("missing").isEmpty());
+    assertTrue(mapped.search("").isEmpty());
+  }
+
+  @Test
+  public void lemmaCursor() throws Exception {
+    DictionaryIndex heap = buildHeapIndex(0.01);
+    DictionaryIndex mapped = writeAndMap(heap);
+    for (DictionaryIndex index : Arrays.asList(heap, mapped)) {
+      LemmaCursor cursor = index.cursor();
+      assertTrue(cursor.advance("生"));
+      assertEquals(index.search("生"), cursor.entries());
+      final LemmaCursor copy = cursor.copy();
+      assertTrue(cursor.advance("物"));
+      assertEquals(index.search("生物"), cursor.entries());
+      assertTrue(cursor.hasEntries());
+      assertFalse(cursor.advance("物"));
+      assertFalse(cursor.hasEntries());
+      assertTrue(cursor.entries().isEmpty());
+      // The copy is still on the first prefix
+      assertEquals(index.search("生"), copy.entries());
+      assertFalse(copy.advance("海"));
+
+      LemmaCursor word = index.cursor();
+      assertTrue(word.advance("wor"));
+      assertFalse(word.hasEntries());
+      assertTrue(word.entries().isEmpty());
+      assertTrue(word.advance("d42"));
+      assertEquals(index.search("word42"), word.entries());
+    }
+  }
+
+  @Test
+  public void readingCursor() throws Exception {
+    DictionaryIndex heap = buildHeapIndex(0.01);
+    DictionaryIndex mapped = writeAndMap(heap);
+    for (DictionaryIndex index : Arrays.asList(heap, mapped)) {
+      LemmaCursor cursor = index.readingCursor();
+      assertTrue(cursor.advance("せい"));
+      assertEquals(index.search("生"), cursor.entries());
+      assertTrue(cursor.advance("ぶつ"));
+      assertEquals(index.search("生物"), cursor.entries());
+
+      // Katakana readings are normalized to hiragana
+      LemmaCursor katakana = index.readingCursor();
+      assertTrue(katakana.advance("シンカイ"));
+      assertEquals(Collections.singletonList(index.search("深海").get(0)), katakana.entries());
+    }
+  }
+
+  @Test
+  public void lemmaFilter() throws Exception {
+    DictionaryIndex heap = buildHeapIndex(0.01);
+    DictionaryIndex mapped = writeAndMap(heap);
+    assertNotNull(mapped.getFilter());
+    assertEquals(heap.getFilter().sizeInBytes(), mapped.getFilter().sizeInBytes());
+    assertEquals(heap.getFilter().getFalsePositiveRate(), mapped.getFilter().getFalsePositiveRate(), 0);
+
+    DictionaryIndex unfiltered = writeAndMap(buildHeapIndex(0));
+    assertNull(unfiltered.getFilter());
+    assertEquals(lemmas(heap), lemmas(unfiltered));
+  }
+}
@@ -0,0 +1,231 @@
+package jijimaku.services.dictionary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class DictionaryIndexStarDictTest {
+
+  // Small dictzip chunks so that the data of a word spans several chunks
+  private static final int CHUNK_LENGTH = 64;
+
+  private Path directory;
+  // Words and their data, in StarDict order
+  private final List<String> words = new ArrayList<>();
+  private final List<byte[]> data = new ArrayList<>();
+
+  @Before
+  public void createWords() throws IOException {
+    directory = Files.createTempDirectory("jijimaku");
+    List<String> sorted = new ArrayList<>(Arrays.asList("Apple", "apple", "banana", "深海", "深海", "生物"));
+    for (int i = 0; i < 200; i++) {
+      sorted.add("word" + i);
+    }
+    sorted.sort(DictionaryIndexStarDictTest::compareStarDict);
+    for (String word : sorted) {
+      words.add(word);
+      StringBuilder definition = new StringBuilder("definition of " + word + " " + data.size());
+      for (int i = 0; i < word.length() % 5; i++) {
+        definition.append("\nanother line of the definition of ").append(word);
+      }
+      data.add(definition.toString().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    for (File file : directory.toFile().listFiles()) {
+      // A mapped file cannot be deleted on some systems
+      if (!file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+    directory.toFile().deleteOnExit();
+  }
+
+  /**
+   * StarDict order: ignoring ASCII case first, then as bytes.
+   */
+  private static int compareStarDict(String word1, String word2) {
+    byte[] b1 = word1.getBytes(StandardCharsets.UTF_8);
+    byte[] b2 = word2.getBytes(StandardCharsets.UTF_8);
+    for (boolean ignoreCase : new boolean[] {true, false}) {
+      for (int i = 0; i < Math.min(b1.length, b2.length); i++) {
+        int c1 = ignoreCase && b1[i] >= 'A' && b1[i] <= 'Z' ? b1[i] + 32 : b1[i] & 0xFF;
+        int c2 = ignoreCase && b2[i] >= 'A' && b2[i] <= 'Z' ? b2[i] + 32 : b2[i] & 0xFF;
+        if (c1 != c2) {
+          return Integer.compare(c1, c2);
+        }
+      }
+      if (b1.length != b2.length) {
+        return Integer.compare(b1.length, b2.length);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Write the .idx file and the concatenated data of the words.
+   */
+  private File writeIdx(String name, boolean offsets64, ByteArrayOutputStream dict) throws IOException {
+    File idxFile = directory.resolve(name + ".idx").toFile();
+    try (DataOutputStream idx = new DataOutputStream(Files.newOutputStream(idxFile.toPath()))) {
+      for (int i = 0; i < words.size(); i++) {
+        idx.write(words.get(i).getBytes(StandardCharsets.UTF_8));
+        idx.write(0);
+        if (offsets64) {
+          idx.writeLong(dict.size());
+        } else {
+          idx.writeInt(dict.size());
+        }
+        idx.writeInt(data.get(i).length);
+        dict.write(data.get(i));
+      }
+    }
+    return idxFile;
+  }
+
+  private DictionaryIndexStarDict open(String name, boolean offsets64, boolean dictzip) throws IOException {
+    ByteArrayOutputStream dict = new ByteArrayOutputStream();
+    File idxFile = writeIdx(name, offsets64, dict);
+    File dictFile = directory.resolve(name + (dictzip ? ".dict.dz" : ".dict")).toFile();
+    Files.write(dictFile.toPath(), dictzip ? dictzip(dict.toByteArray()) : dict.toByteArray());
+    return new DictionaryIndexStarDict(idxFile, dictFile, offsets64, "m", null);
+  }
+
+  /**
+   * Compress data in the dictzip format: a gzip file whose RA extra field has the compressed size of each chunk,
+   * every chunk is an independent deflate stream.
+   */
+  private static byte[] dictzip(byte[] data) throws IOException {
+    List<byte[]> chunks = new ArrayList<>();
+    for (int start = 0; start < data.length; start += CHUNK_LENGTH) {
+      Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+      deflater.setInput(data, start, Math.min(CHUNK_LENGTH, data.length - start));
+      deflater.finish();
+      byte[] buffer = new byte[2 * CHUNK_LENGTH + 64];
+      int length = 0;
+      while (!deflater.finished()) {
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+      deflater.end();
+      chunks.add(Arrays.copyOf(buffer, length));
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(22 + 2 * chunks.size()).order(ByteOrder.LITTLE_ENDIAN);
+    header.putShort((short) 0x8B1F).put((byte) 8).put((byte) 4).putInt(0).put((byte) 2).put((byte) 3);
+    header.putShort((short) (10 + 2 * chunks.size()));
+    header.put((byte) 'R').put((byte) 'A').putShort((short) (6 + 2 * chunks.size()));
+    header.putShort((short) 1).putShort((short) CHUNK_LENGTH).putShort((short) chunks.size());
+    for (byte[] chunk : chunks) {
+      header.putShort((short) chunk.length);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(header.array());
+    for (byte[] chunk : chunks) {
+      out.write(chunk);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    out.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt((int) crc.getValue()).putInt(data.length).array());
+    return out.toByteArray();
+  }
+
+  private static Map<String, List<DictionaryEntry>> entries(DictionaryIndex index) {
+    Map<String, List<DictionaryEntry>> entries = new LinkedHashMap<>();
+    index.forEach(entries::put);
+    return entries;
+  }
+
+  @Test
+  public void searchWords() throws Exception {
+    DictionaryIndexStarDict index = open("plain", false, false);
+    assertEquals(words.size() - 1, index.size());
+    for (int i = 0; i < words.size(); i++) {
+      List<String> senses = index.search(words.get(i)).stream()
+          .flatMap(e -> e.getSenses().stream())
+          .collect(Collectors.toList());
+      assertTrue(words.get(i), senses.contains("definition of " + words.get(i) + " " + i));
+    }
+    // The search is case-sensitive, only the order is not
+    assertEquals(Collections.singletonList("Apple"), index.search("Apple").get(0).getLemmas());
+    assertEquals(1, index.search("apple").size());
+    assertEquals(2, index.search("深海").size());
+    assertTrue(index.search("APPLE").isEmpty());
+    assertTrue(index.search("word").isEmpty());
+    assertTrue(index.search("zzz").isEmpty());
+  }
+
+  @Test
+  public void cursor() throws Exception {
+    DictionaryIndexStarDict index = open("plain", false, false);
+    LemmaCursor cursor = index.cursor();
+    assertTrue(cursor.advance("app"));
+    final LemmaCursor copy = cursor.copy();
+    assertFalse(cursor.hasEntries());
+    assertTrue(cursor.advance("le"));
+    assertTrue(cursor.hasEntries());
+    assertEquals(index.search("apple"), cursor.entries());
+    assertFalse(cursor.advance("s"));
+    // The prefix matches the words ignoring case, but the entries are only those of the exact word
+    assertTrue(copy.advance("LE"));
+    assertFalse(copy.hasEntries());
+    assertTrue(copy.entries().isEmpty());
+
+    LemmaCursor word = index.cursor();
+    assertTrue(word.advance("word1"));
+    assertEquals(index.search("word1"), word.entries());
+    assertTrue(word.advance("99"));
+    assertEquals(index.search("word199"), word.entries());
+  }
+
+  @Test
+  public void dictzipSameAsPlain() throws Exception {
+    Map<String, List<DictionaryEntry>> plain = entries(open("plain", false, false));
+    assertEquals(plain, entries(open("dictzip", false, true)));
+    assertEquals(plain, entries(open("plain64", true, false)));
+    assertEquals(plain, entries(open("dictzip64", true, true)));
+  }
+
+  @Test
+  public void typedFields() throws Exception {
+    words.clear();
+    data.clear();
+    words.add("深海");
+    ByteArrayOutputStream fields = new ByteArrayOutputStream();
+    fields.write(("tしんかい\0mdeep sea\nabyss\0h<b>bottom</b> of the sea<br>depths &amp; trenches\0").getBytes(StandardCharsets.UTF_8));
+    data.add(fields.toByteArray());
+    ByteArrayOutputStream dict = new ByteArrayOutputStream();
+    File idxFile = writeIdx("typed", false, dict);
+    File dictFile = directory.resolve("typed.dict").toFile();
+    Files.write(dictFile.toPath(), dict.toByteArray());
+
+    DictionaryEntry entry = new DictionaryIndexStarDict(idxFile, dictFile, false, null, null).search("深海").get(0);
+    assertEquals(Collections.singletonList("しんかい"), entry.getPronunciations());
+    assertEquals(Arrays.asList("deep sea", "abyss", "bottom of the sea", "depths & trenches"), entry.getSenses());
+  }
+}
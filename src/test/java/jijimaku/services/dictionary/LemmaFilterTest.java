@@ -0,0 +1,134 @@
+package jijimaku.services.dictionary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+
+public class LemmaFilterTest {
+
+  private static final double FALSE_POSITIVE_RATE = 0.01;
+
+  private static List<String> sortedLemmas() {
+    List<String> lemmas = new ArrayList<>(Arrays.asList("深海", "深海魚", "世界", "生", "生物", "生物学", "Über"));
+    Random random = new Random(42);
+    for (int i = 0; i < 5000; i++) {
+      lemmas.add(randomWord(random));
+    }
+    return new ArrayList<>(new TreeSet<>(lemmas));
+  }
+
+  private static String randomWord(Random random) {
+    StringBuilder word = new StringBuilder();
+    int length = 2 + random.nextInt(6);
+    for (int i = 0; i < length; i++) {
+      word.append((char) ('a' + random.nextInt(26)));
+    }
+    return word.toString();
+  }
+
+  @Test
+  public void noFalseNegative() {
+    List<String> lemmas = sortedLemmas();
+    LemmaFilter filter = LemmaFilter.build(lemmas, FALSE_POSITIVE_RATE);
+    for (String lemma : lemmas) {
+      for (int i = 1; i <= lemma.length(); i++) {
+        assertTrue(lemma.substring(0, i), filter.mightStartWith(lemma.substring(0, i)));
+      }
+    }
+  }
+
+  @Test
+  public void falsePositiveRate() {
+    List<String> lemmas = sortedLemmas();
+    LemmaFilter filter = LemmaFilter.build(lemmas, FALSE_POSITIVE_RATE);
+    Random random = new Random(7);
+    int tested = 20000;
+    int falsePositives = 0;
+    for (int i = 0; i < tested; i++) {
+      // Upper case words are not prefixes of the lemmas
+      String word = randomWord(random).toUpperCase();
+      if (filter.mightStartWith(word)) {
+        falsePositives++;
+      }
+    }
+    assertTrue("false positives: " + falsePositives, falsePositives < 3 * FALSE_POSITIVE_RATE * tested);
+    assertTrue(filter.getFalsePositiveRate() < 3 * FALSE_POSITIVE_RATE);
+  }
+
+  @Test
+  public void filteringCursor() {
+    LemmaFilter filter = LemmaFilter.build(Arrays.asList("生", "生物"), FALSE_POSITIVE_RATE);
+    List<DictionaryEntry> found = Collections.singletonList(
+        new DictionaryEntry(Collections.singletonList("生物"), Collections.singletonList("creature"), null, null, new TagTable()));
+    int[] advances = {0};
+    LemmaCursor everything = new LemmaCursor() {
+      @Override
+      public boolean advance(CharSequence fragment) {
+        advances[0]++;
+        return true;
+      }
+
+      @Override
+      public boolean hasEntries() {
+        return true;
+      }
+
+      @Override
+      public List<DictionaryEntry> entries() {
+        return found;
+      }
+
+      @Override
+      public LemmaCursor copy() {
+        return this;
+      }
+    };
+
+    LemmaCursor cursor = filter.filteringCursor(everything);
+    assertTrue(cursor.advance("生"));
+    final LemmaCursor copy = cursor.copy();
+    assertTrue(cursor.advance("物"));
+    assertEquals(found, cursor.entries());
+    assertEquals(2, advances[0]);
+
+    // The rejected prefix does not reach the wrapped cursor
+    assertFalse(copy.advance("X"));
+    assertFalse(copy.hasEntries());
+    assertTrue(copy.entries().isEmpty());
+    assertFalse(copy.advance("物"));
+    assertEquals(2, advances[0]);
+  }
+
+  @Test
+  public void writeAndRead() throws Exception {
+    List<String> lemmas = sortedLemmas();
+    LemmaFilter filter = LemmaFilter.build(lemmas, FALSE_POSITIVE_RATE);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(new byte[3]);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      filter.write(out);
+    }
+    LemmaFilter read = LemmaFilter.read(ByteBuffer.wrap(bytes.toByteArray()), 3);
+
+    assertEquals(filter.sizeInBytes(), read.sizeInBytes());
+    assertEquals(filter.getFalsePositiveRate(), read.getFalsePositiveRate(), 0);
+    Random random = new Random(1);
+    for (int i = 0; i < 1000; i++) {
+      String word = randomWord(random);
+      assertEquals(word, filter.mightStartWith(word), read.mightStartWith(word));
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package jijimaku.services.dictionary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+
+public class LingoesLd2ReaderTest {
+
+  private static final String LD2_FILE = "/dictionaries/ld2/JMDict English-Japanese Dictionary.ld2";
+
+  private static File getLd2File() throws Exception {
+    return new File(LingoesLd2ReaderTest.class.getResource(LD2_FILE).toURI());
+  }
+
+  @Test
+  public void readWordsAndDefinitions() throws Exception {
+    LingoesLd2Reader reader = new LingoesLd2Reader(getLd2File());
+    assertEquals(110984, reader.size());
+    assertEquals("007 (lit: zero-zero-seven)", reader.getWord(0));
+    assertEquals("ゼロゼロセブン", reader.getDefinition(0));
+    assertEquals("a one man show", reader.getWord(1000));
+    assertEquals("一人芝居ひとりしばい", reader.getDefinition(1000));
+    assertEquals("étude", reader.getWord(reader.size() - 1));
+  }
+
+  @Test
+  public void allWordsDecoded() throws Exception {
+    LingoesLd2Reader reader = new LingoesLd2Reader(getLd2File());
+    for (int i = 0; i < reader.size(); i++) {
+      assertFalse("word " + i, reader.getWord(i).isEmpty());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedFile() throws Exception {
+    File truncated = File.createTempFile("jijimaku", ".ld2");
+    try {
+      byte[] data = Files.readAllBytes(getLd2File().toPath());
+      Files.write(truncated.toPath(), Arrays.copyOf(data, 0x100));
+      new LingoesLd2Reader(truncated);
+    } finally {
+      Files.delete(truncated.toPath());
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package jijimaku.services.langparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jijimaku.services.LanguageService.Language;
+
+
+public class LangParserCachedTest {
+
+  private Path directory;
+  private Path cacheFile;
+  private final AtomicInteger parsed = new AtomicInteger();
+
+  /**
+   * Parser that returns each text as one noun, and counts the texts it parsed.
+   */
+  private final LangParser parser = new LangParser() {
+    @Override
+    public Language getLanguage() {
+      return Language.ENGLISH;
+    }
+
+    @Override
+    public String getParserId() {
+      return "test";
+    }
+
+    @Override
+    public Logger getLogger() {
+      return LogManager.getLogger();
+    }
+
+    @Override
+    public List<TextToken> syntaxicParse(String text) {
+      parsed.incrementAndGet();
+      return Collections.singletonList(new TextToken(PosTag.NOUN, text, null, null));
+    }
+  };
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("jijimaku");
+    cacheFile = directory.resolve("test.parsecache");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    Files.deleteIfExists(cacheFile);
+    Files.delete(directory);
+  }
+
+  @Test
+  public void diskCacheSurvivesInterruptedThread() throws Exception {
+    // Nothing is kept in memory: every lookup reads the cache file
+    LangParserCached cached = new LangParserCached(parser, 0, cacheFile);
+    cached.parseAll(Arrays.asList("deep", "sea"));
+    assertEquals(2, parsed.get());
+
+    // A cancelled annotation interrupts its threads while they use the cache
+    Thread interrupted = new Thread(() -> {
+      Thread.currentThread().interrupt();
+      cached.parseAll(Arrays.asList("deep", "sea", "creature"));
+    });
+    interrupted.start();
+    interrupted.join();
+    assertEquals(3, parsed.get());
+
+    // The other threads still read and write the cache file
+    cached.parseAll(Arrays.asList("deep", "sea", "creature", "world"));
+    cached.parseAll(Collections.singletonList("world"));
+    assertEquals(4, parsed.get());
+    assertTrue(cached.getStatistics(), cached.getStatistics().contains("6 from disk"));
+  }
+
+  @Test
+  public void duplicateTextsParsedOnce() throws Exception {
+    LangParserCached cached = new LangParserCached(parser, 0, cacheFile);
+    cached.parseAll(Arrays.asList("deep", "sea", "deep"));
+    assertEquals(2, parsed.get());
+    assertEquals("sea", cached.parse("sea").get(0).getTextForm());
+    assertEquals(2, parsed.get());
+  }
+}
@@ -0,0 +1,161 @@
+package jijimaku.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class FileManagerTest {
+
+  private static final String TEXT = "深海へ潜っていきましょう 𠮷";
+
+  private Path directory;
+  private int fileCount = 0;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("jijimaku");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    for (File file : directory.toFile().listFiles()) {
+      Files.delete(file.toPath());
+    }
+    Files.delete(directory);
+  }
+
+  private File write(byte[]... parts) throws IOException {
+    File file = directory.resolve("file" + fileCount++ + ".srt").toFile();
+    Files.write(file.toPath(), concat(parts));
+    return file;
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    byte[] data = new byte[0];
+    for (byte[] part : parts) {
+      int length = data.length;
+      data = Arrays.copyOf(data, length + part.length);
+      System.arraycopy(part, 0, data, length, part.length);
+    }
+    return data;
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] data = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      data[i] = (byte) values[i];
+    }
+    return data;
+  }
+
+  @Test
+  public void validUtf8() throws Exception {
+    File file = write(TEXT.getBytes(StandardCharsets.UTF_8));
+    assertEquals(StandardCharsets.UTF_8, FileManager.detectCharset(file));
+    assertEquals(TEXT, FileManager.fileAnyEncodingToString(file));
+  }
+
+  @Test
+  public void utf8CharacterAcrossReadChunks() throws Exception {
+    // 64 KB is the size of the sample and of the following reads, the 3 bytes character starts 1 byte before the end
+    byte[] padding = new byte[64 * 1024 - 1];
+    Arrays.fill(padding, (byte) 'a');
+    File file = write(padding, "海".getBytes(StandardCharsets.UTF_8), padding, "海".getBytes(StandardCharsets.UTF_8));
+    assertEquals(StandardCharsets.UTF_8, FileManager.detectCharset(file));
+  }
+
+  /**
+   * Validate data given in one chunk, then one byte at a time.
+   */
+  private static boolean isValidUtf8(byte[]... parts) {
+    byte[] data = concat(parts);
+    FileManager.Utf8Validator validator = new FileManager.Utf8Validator();
+    boolean valid = validator.update(data, data.length) && validator.isComplete();
+    FileManager.Utf8Validator byteValidator = new FileManager.Utf8Validator();
+    boolean byteValid = true;
+    for (byte b : data) {
+      byteValid = byteValid && byteValidator.update(new byte[] {b}, 1);
+    }
+    assertEquals(valid, byteValid && byteValidator.isComplete());
+    return valid;
+  }
+
+  @Test
+  public void utf8Boundaries() {
+    assertTrue(isValidUtf8(TEXT.getBytes(StandardCharsets.UTF_8)));
+    assertTrue(isValidUtf8(bytes(0x7F, 0xC2, 0x80, 0xDF, 0xBF)));
+    assertTrue(isValidUtf8(bytes(0xE0, 0xA0, 0x80, 0xED, 0x9F, 0xBF, 0xEE, 0x80, 0x80, 0xEF, 0xBF, 0xBF)));
+    assertTrue(isValidUtf8(bytes(0xF0, 0x90, 0x80, 0x80, 0xF4, 0x8F, 0xBF, 0xBF)));
+    assertFalse(isValidUtf8(bytes(0x80)));
+    assertFalse(isValidUtf8(bytes(0xFF)));
+  }
+
+  @Test
+  public void overlongUtf8() {
+    assertFalse(isValidUtf8(bytes(0xC0, 0xAF)));
+    assertFalse(isValidUtf8(bytes(0xC1, 0xBF)));
+    assertFalse(isValidUtf8(bytes(0xE0, 0x80, 0xAF)));
+    assertFalse(isValidUtf8(bytes(0xE0, 0x9F, 0xBF)));
+    assertFalse(isValidUtf8(bytes(0xF0, 0x80, 0x80, 0xAF)));
+    assertFalse(isValidUtf8(bytes(0xF0, 0x8F, 0xBF, 0xBF)));
+  }
+
+  @Test
+  public void surrogateUtf8() {
+    assertFalse(isValidUtf8(bytes(0xED, 0xA0, 0x80)));
+    assertFalse(isValidUtf8(bytes(0xED, 0xBF, 0xBF)));
+  }
+
+  @Test
+  public void codePointAboveUnicodeRange() {
+    assertFalse(isValidUtf8(bytes(0xF4, 0x90, 0x80, 0x80)));
+    assertFalse(isValidUtf8(bytes(0xF5, 0x80, 0x80, 0x80)));
+  }
+
+  @Test
+  public void truncatedUtf8() {
+    assertFalse(isValidUtf8("深海".getBytes(StandardCharsets.UTF_8), bytes(0xE3, 0x81)));
+    assertFalse(isValidUtf8("深海".getBytes(StandardCharsets.UTF_8), bytes(0xE3, 0x81), "abc".getBytes(StandardCharsets.UTF_8)));
+    assertFalse(isValidUtf8(bytes(0xF0, 0x90, 0x80)));
+  }
+
+  @Test
+  public void byteOrderMarks() throws Exception {
+    Charset[] charsets = {StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, StandardCharsets.UTF_16BE,
+        Charset.forName("UTF-32LE"), Charset.forName("UTF-32BE")};
+    for (Charset charset : charsets) {
+      File file = write(("\uFEFF" + TEXT).getBytes(charset));
+      assertEquals(charset, FileManager.detectCharset(file));
+      assertEquals(TEXT, FileManager.fileAnyEncodingToString(file));
+      try (Reader reader = FileManager.fileAnyEncodingReader(file)) {
+        assertEquals(TEXT, new BufferedReader(reader).readLine());
+      }
+    }
+  }
+
+  @Test
+  public void shiftJis() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      text.append(i + 1).append("\n00:00:01,000 --> 00:00:02,000\n深海の生物はとても不思議です。世界の海には多くの謎があります。\n\n");
+    }
+    File file = write(text.toString().getBytes("Shift_JIS"));
+    assertEquals(Charset.forName("Shift_JIS"), FileManager.detectCharset(file));
+    assertEquals(text.toString(), FileManager.fileAnyEncodingToString(file));
+  }
+}
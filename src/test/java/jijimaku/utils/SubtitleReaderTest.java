@@ -0,0 +1,157 @@
+package jijimaku.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import jijimaku.models.Caption;
+
+
+public class SubtitleReaderTest {
+
+  private static final String SRT_FILE = "/subtitles/japanese/DavidGallo_2007.ja.srt";
+  private static final String STYLES = "[V4+ Styles]\n"
+      + "Format: Name, Fontname, Fontsize, PrimaryColour, SecondaryColour, OutlineColour, BackColour, Bold, Italic, Underline, StrikeOut"
+      + ", ScaleX, ScaleY, Spacing, Angle, BorderStyle, Outline, Shadow, Alignment, MarginL, MarginR, MarginV, Encoding\n"
+      + "Style: DEFAULT,Arial,28,16777215,16777215,0,2147483648,0,0,0,0,100,100,0,0,1,2,2,2,20,20,15,0";
+
+  private static File getSrtFile() throws URISyntaxException {
+    return new File(SubtitleReaderTest.class.getResource(SRT_FILE).toURI());
+  }
+
+  private static List<Caption> readAll(SubtitleReader reader) throws IOException {
+    List<Caption> captions = new ArrayList<>();
+    Caption caption;
+    while ((caption = reader.next()) != null) {
+      captions.add(caption);
+    }
+    return captions;
+  }
+
+  private static String writeAss(String title, List<Caption> captions) throws IOException {
+    StringWriter out = new StringWriter();
+    try (AssWriter writer = new AssWriter(out, title, STYLES)) {
+      for (Caption caption : captions) {
+        writer.write(caption, SubtitleFile.SubStyle.DEFAULT);
+      }
+    }
+    return out.toString();
+  }
+
+  @Test
+  public void readSrt() throws Exception {
+    try (SubtitleReader reader = SubtitleReader.open(getSrtFile())) {
+      List<Caption> captions = readAll(reader);
+      assertEquals(107, captions.size());
+      assertEquals(11820, captions.get(0).getStart());
+      assertEquals(14820, captions.get(0).getEnd());
+      // The byte order mark of the file is not part of the first caption
+      assertEquals("深海へ潜っていきましょう", captions.get(0).getContent());
+      assertFalse(reader.isJijimakuFile());
+      assertEquals("DavidGallo_2007.ja.srt", reader.getTitle());
+    }
+  }
+
+  @Test
+  public void srtWithoutIndexAndInvalidTiming() throws Exception {
+    String srt = "00:00:01,000 --> 00:00:02,500\nfirst\nsecond line\n\n"
+        + "2\nnot a timing\nskipped\n\n"
+        + "3\n00:01:00,5 --> 00:01:01,25\nthird\n";
+    try (SubtitleReader reader = new SubtitleReader("test.srt", new StringReader(srt))) {
+      List<Caption> captions = readAll(reader);
+      assertEquals(2, captions.size());
+      assertEquals("first" + Caption.LINE_BREAK + "second line", captions.get(0).getContent());
+      assertEquals(2500, captions.get(0).getEnd());
+      // The fraction of second is a decimal part
+      assertEquals(60500, captions.get(1).getStart());
+      assertEquals(61250, captions.get(1).getEnd());
+    }
+  }
+
+  @Test
+  public void assRoundTrip() throws Exception {
+    List<Caption> captions;
+    try (SubtitleReader reader = SubtitleReader.open(getSrtFile())) {
+      captions = readAll(reader);
+    }
+    String ass = writeAss("David Gallo", captions);
+
+    try (SubtitleReader reader = new SubtitleReader("test.ass", new StringReader(ass))) {
+      assertTrue(reader.isJijimakuFile());
+      assertEquals("David Gallo", reader.getTitle());
+      List<Caption> readCaptions = readAll(reader);
+      assertEquals(captions.size(), readCaptions.size());
+      for (int i = 0; i < captions.size(); i++) {
+        // ASS times are in centiseconds
+        assertEquals(captions.get(i).getStart() / 10 * 10, readCaptions.get(i).getStart());
+        assertEquals(captions.get(i).getEnd() / 10 * 10, readCaptions.get(i).getEnd());
+        assertEquals(captions.get(i).getContent(), readCaptions.get(i).getContent());
+      }
+    }
+  }
+
+  @Test
+  public void assLineBreaksAndTags() throws Exception {
+    List<Caption> captions = Arrays.asList(
+        new Caption(3723450, 3724000, "first line" + Caption.LINE_BREAK + "second line"),
+        new Caption(0, 1000, "<i>italic</i> text"));
+    String ass = writeAss("title", captions);
+    assertTrue(ass.contains("Dialogue: 0,1:02:03.45,1:02:04.00,DEFAULT,,0000,0000,0000,,first line\\Nsecond line"));
+
+    try (SubtitleReader reader = new SubtitleReader("test.ass", new StringReader(ass))) {
+      Caption caption = reader.next();
+      assertEquals(3723450, caption.getStart());
+      assertEquals("first line" + Caption.LINE_BREAK + "second line", caption.getContent());
+      assertEquals("italic text", reader.next().getContent());
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void assOverrideTagsAndFormat() throws Exception {
+    String ass = "[Script Info]\nTitle: Episode 1\n\n[Events]\n"
+        + "Format: Layer, Start, End, Style, Text\n"
+        + "Comment: 0,0:00:00.00,0:00:01.00,Default,comment\n"
+        + "Dialogue: 0,0:00:01.00,0:00:02.00,Default,{\\an8}hello,\\hworld\n";
+    try (SubtitleReader reader = new SubtitleReader("test.ass", new StringReader(ass))) {
+      assertEquals("Episode 1", reader.getTitle());
+      assertFalse(reader.isJijimakuFile());
+      Caption caption = reader.next();
+      assertEquals(1000, caption.getStart());
+      assertEquals("hello, world", caption.getContent());
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void jijimakuSignature() throws Exception {
+    File annotated = File.createTempFile("jijimaku", ".ass");
+    File other = File.createTempFile("jijimaku", ".ass");
+    try {
+      try (Writer out = Files.newBufferedWriter(annotated.toPath(), StandardCharsets.UTF_8)) {
+        out.write(writeAss("title", new ArrayList<>()));
+      }
+      Files.write(other.toPath(), "[Script Info]\nTitle: other\n".getBytes(StandardCharsets.UTF_8));
+      assertTrue(SubtitleReader.hasJijimakuSignature(annotated));
+      assertFalse(SubtitleReader.hasJijimakuSignature(other));
+    } finally {
+      Files.delete(annotated.toPath());
+      Files.delete(other.toPath());
+    }
+  }
+}
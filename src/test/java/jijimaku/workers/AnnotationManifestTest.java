@@ -0,0 +1,119 @@
+package jijimaku.workers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class AnnotationManifestTest {
+
+  private static final String FINGERPRINT = "fingerprint";
+
+  private Path directory;
+  private File source;
+  private Path output;
+
+  @Before
+  public void createFiles() throws IOException {
+    directory = Files.createTempDirectory("jijimaku");
+    Files.createDirectory(directory.resolve("season 1"));
+    source = directory.resolve("season 1/episode.srt").toFile();
+    output = directory.resolve("season 1/episode.ass");
+    Files.write(source.toPath(), "1\n00:00:01,000 --> 00:00:02,000\n深海\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(output, "annotated".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @After
+  public void deleteFiles() throws IOException {
+    Files.deleteIfExists(source.toPath());
+    Files.deleteIfExists(output);
+    Files.deleteIfExists(directory.resolve(AnnotationManifest.MANIFEST_FILE));
+    Files.delete(directory.resolve("season 1"));
+    Files.delete(directory);
+  }
+
+  private AnnotationManifest recordAndReload(boolean annotated) throws IOException {
+    AnnotationManifest manifest = AnnotationManifest.load(directory.toFile(), FINGERPRINT);
+    assertFalse(manifest.isUpToDate(source, output));
+    manifest.record(source, annotated);
+    manifest.save(true);
+    return AnnotationManifest.load(directory.toFile(), FINGERPRINT);
+  }
+
+  @Test
+  public void unchangedFileIsUpToDate() throws Exception {
+    assertTrue(recordAndReload(true).isUpToDate(source, output));
+  }
+
+  @Test
+  public void otherFingerprint() throws Exception {
+    recordAndReload(true);
+    assertFalse(AnnotationManifest.load(directory.toFile(), "other").isUpToDate(source, output));
+  }
+
+  @Test
+  public void modifiedFile() throws Exception {
+    AnnotationManifest manifest = recordAndReload(true);
+    Files.write(source.toPath(), "1\n00:00:01,000 --> 00:00:02,000\n世界\n".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(source.toPath(), FileTime.fromMillis(source.lastModified() + 2000));
+    assertFalse(manifest.isUpToDate(source, output));
+  }
+
+  @Test
+  public void touchedFile() throws Exception {
+    AnnotationManifest manifest = recordAndReload(true);
+    // Same size and contents, only the modification time changed
+    Files.setLastModifiedTime(source.toPath(), FileTime.fromMillis(source.lastModified() + 2000));
+    assertTrue(manifest.isUpToDate(source, output));
+    manifest.save(true);
+    assertTrue(AnnotationManifest.load(directory.toFile(), FINGERPRINT).isUpToDate(source, output));
+  }
+
+  @Test
+  public void missingOutput() throws Exception {
+    AnnotationManifest manifest = recordAndReload(true);
+    Files.delete(output);
+    assertFalse(manifest.isUpToDate(source, output));
+  }
+
+  @Test
+  public void nothingToAnnotate() throws Exception {
+    // A file without annotations has no output, it is still skipped next time
+    Files.delete(output);
+    assertTrue(recordAndReload(false).isUpToDate(source, output));
+  }
+
+  @Test
+  public void deletedFilesAreRemoved() throws Exception {
+    recordAndReload(true);
+    // A run that does not see the file removes it from the manifest
+    AnnotationManifest manifest = AnnotationManifest.load(directory.toFile(), FINGERPRINT);
+    manifest.save(true);
+    assertFalse(AnnotationManifest.load(directory.toFile(), FINGERPRINT).isUpToDate(source, output));
+
+    // Unless the run did not check all the files
+    recordAndReload(true);
+    manifest = AnnotationManifest.load(directory.toFile(), FINGERPRINT);
+    manifest.save(false);
+    assertTrue(AnnotationManifest.load(directory.toFile(), FINGERPRINT).isUpToDate(source, output));
+  }
+
+  @Test
+  public void corruptedManifest() throws Exception {
+    recordAndReload(true);
+    Path manifestFile = directory.resolve(AnnotationManifest.MANIFEST_FILE);
+    String header = new String(Files.readAllBytes(manifestFile), StandardCharsets.UTF_8).split("\n")[0];
+    Files.write(manifestFile, (header + "\nnot a number\t1\thash\ttrue\tseason 1/episode.srt\n").getBytes(StandardCharsets.UTF_8));
+    assertFalse(AnnotationManifest.load(directory.toFile(), FINGERPRINT).isUpToDate(source, output));
+  }
+}